@@ -0,0 +1,98 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.bench;
+
+import java.io.IOException;
+
+import pacman.game.Board;
+import pacman.game.BoardLoader;
+import pacman.game.Pacman;
+
+/**
+ * Helpers shared between the benchmarks. Boards are loaded from the boards/
+ * directory, which the benchmarks must be run from the root of the project to
+ * find (as they are by the bench target).
+ * 
+ * @author djp
+ * 
+ */
+final class Boards {
+	/**
+	 * Load a board from the boards/ directory, and register a given number of
+	 * pacmen on it.
+	 * 
+	 * @param name
+	 * @param nHomerGhosts
+	 * @param nRandomGhosts
+	 * @param nPacmen
+	 * @return
+	 * @throws IOException
+	 */
+	static Board load(String name, int nHomerGhosts, int nRandomGhosts,
+			int nPacmen) throws IOException {
+		Board board = BoardLoader.load("boards/" + name + ".txt", nHomerGhosts,
+				nRandomGhosts);
+		for(int i=0;i!=nPacmen;++i) {
+			board.registerPacman();
+		}
+		return board;
+	}
+	
+	/**
+	 * Determine the positions (in real coordinates) of up to n open tiles,
+	 * spread evenly over a board.
+	 * 
+	 * @param board
+	 * @param n
+	 * @return
+	 */
+	static int[][] openTiles(Board board, int n) {
+		int nopen = 0;
+		for(int y=0;y!=board.height();++y) {
+			for(int x=0;x!=board.width();++x) {
+				if(!board.isWall(x,y)) { nopen++; }
+			}
+		}
+		int stride = Math.max(1, nopen / n);
+		int[][] tiles = new int[Math.min(n, nopen)][];
+		int i = 0, j = 0;
+		for(int y=0;y!=board.height();++y) {
+			for(int x=0;x!=board.width();++x) {
+				if(!board.isWall(x,y) && (j++ % stride) == 0 && i != tiles.length) {
+					tiles[i++] = new int[]{x*30, y*30};
+				}
+			}
+		}
+		return tiles;
+	}
+	
+	/**
+	 * Create a stopped pacman at each of a given set of positions.
+	 * 
+	 * @param tiles
+	 * @return
+	 */
+	static Pacman[] pacmen(int[][] tiles) {
+		Pacman[] pacmen = new Pacman[tiles.length];
+		for(int i=0;i!=tiles.length;++i) {
+			pacmen[i] = new Pacman(tiles[i][0], tiles[i][1], Pacman.STOPPED, 0, 3, 0);
+		}
+		return pacmen;
+	}
+}
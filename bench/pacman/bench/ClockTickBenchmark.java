@@ -0,0 +1,99 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pacman.game.Board;
+import pacman.game.MovingCharacter;
+
+/**
+ * Measures the cost of a single clock tick, for each board with varying
+ * numbers of ghosts and pacmen. Half of the ghosts are homing ghosts, and
+ * half are random walkers. The pacmen are steered by seeded random inputs.
+ * Each invocation plays TICKS ticks from the start of a game, and the board is
+ * reset before every invocation, so that every tick measured is of a live
+ * game rather than one the ghosts have already won.
+ * 
+ * @author djp
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClockTickBenchmark {
+	/**
+	 * The number of ticks played by each invocation. On every board, the
+	 * ghosts take longer than this to eat every pacman.
+	 */
+	private static final int TICKS = 64;
+	
+	/**
+	 * The number of ticks between the inputs given to each pacman.
+	 */
+	private static final int INPUT_PERIOD = 8;
+	
+	@Param({ "small", "medium", "large", "huge", "classic", "uniform" })
+	public String board;
+	
+	@Param({ "0", "4", "16" })
+	public int ghosts;
+	
+	@Param({ "1", "4" })
+	public int pacmen;
+	
+	private Board game;
+	private byte[] initial;
+	private Random random;
+	
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		game = Boards.load(board, ghosts / 2, ghosts - (ghosts / 2), pacmen);
+		initial = game.toByteArray();
+	}
+	
+	@Setup(Level.Invocation)
+	public void reset() throws IOException {
+		game.fromByteArray(initial);
+		game.setState(Board.PLAYING);
+		random = new Random(1);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(TICKS)
+	public Board clockTick() {
+		for(int i=0;i!=TICKS;++i) {
+			if((i % INPUT_PERIOD) == 0) {
+				// NOTE: the pacmen were registered first, and so have uids 1..n
+				for(int uid=1;uid<=pacmen;++uid) {
+					game.input(uid, MovingCharacter.UP + random.nextInt(4));
+				}
+			}
+			game.clockTick();
+		}
+		return game;
+	}
+}
@@ -0,0 +1,70 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pacman.game.Board;
+
+/**
+ * Measures the cost of encoding and decoding the board state, as done for
+ * every frame sent to a slave, and of encoding the walls, as done when a
+ * slave connects.
+ * 
+ * @author djp
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CodecBenchmark {
+	@Param({ "small", "medium", "large", "huge", "classic", "uniform" })
+	public String board;
+	
+	private Board game;
+	private byte[] state;
+	
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		game = Boards.load(board, 2, 2, 4);
+		state = game.toByteArray();
+	}
+	
+	@Benchmark
+	public byte[] toByteArray() throws IOException {
+		return game.toByteArray();
+	}
+	
+	@Benchmark
+	public Board fromByteArray() throws IOException {
+		game.fromByteArray(state);
+		return game;
+	}
+	
+	@Benchmark
+	public byte[] wallsToByteArray() {
+		return game.wallsToByteArray();
+	}
+}
@@ -0,0 +1,78 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pacman.game.Board;
+import pacman.game.HomerGhost;
+
+/**
+ * Measures the cost of a homing ghost's tick, which searches every character
+ * on the board for the nearest live pacman whenever the ghost reaches an
+ * intersection. Each invocation ticks a different ghost, cycling through
+ * ghosts spread over the whole board; the ghosts are put back at the start of
+ * each iteration.
+ * 
+ * @author djp
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HomerGhostBenchmark {
+	@Param({ "small", "medium", "large", "huge", "classic", "uniform" })
+	public String board;
+	
+	@Param({ "1", "4", "16" })
+	public int pacmen;
+	
+	private Board game;
+	private int[][] tiles;
+	private HomerGhost[] ghosts;
+	private int next;
+	
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		game = Boards.load(board, 0, 0, pacmen);
+		tiles = Boards.openTiles(game, 256);
+		ghosts = new HomerGhost[tiles.length];
+	}
+	
+	@Setup(Level.Iteration)
+	public void reset() {
+		for(int i=0;i!=tiles.length;++i) {
+			ghosts[i] = new HomerGhost(tiles[i][0], tiles[i][1]);
+		}
+	}
+	
+	@Benchmark
+	public HomerGhost tick() {
+		HomerGhost g = ghosts[next];
+		next = (next + 1) % ghosts.length;
+		g.tick(game);
+		return g;
+	}
+}
@@ -0,0 +1,82 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pacman.game.Board;
+import pacman.game.Pacman;
+
+/**
+ * Measures the cost of the movement checks, which every moving character
+ * makes on every tick. Each invocation checks a character on a different open
+ * tile, cycling through tiles spread over the whole board.
+ * 
+ * @author djp
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MoveBenchmark {
+	@Param({ "small", "medium", "large", "huge", "classic", "uniform" })
+	public String board;
+	
+	private Board game;
+	private Pacman[] characters;
+	private int next;
+	
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		game = Boards.load(board, 0, 0, 0);
+		characters = Boards.pacmen(Boards.openTiles(game, 1024));
+	}
+	
+	private Pacman next() {
+		Pacman p = characters[next];
+		next = (next + 1) % characters.length;
+		return p;
+	}
+	
+	@Benchmark
+	public boolean canMoveUp() {
+		return game.canMoveUp(next());
+	}
+	
+	@Benchmark
+	public boolean canMoveDown() {
+		return game.canMoveDown(next());
+	}
+	
+	@Benchmark
+	public boolean canMoveLeft() {
+		return game.canMoveLeft(next());
+	}
+	
+	@Benchmark
+	public boolean canMoveRight() {
+		return game.canMoveRight(next());
+	}
+}
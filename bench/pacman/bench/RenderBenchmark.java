@@ -0,0 +1,69 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.bench;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import pacman.game.Board;
+import pacman.ui.BoardCanvas;
+
+/**
+ * Measures the cost of drawing a frame into an offscreen image, which is what
+ * the render thread does before each buffer flip. Note that the canvas sizes
+ * its viewport from the screen, so this benchmark requires a display.
+ * 
+ * @author djp
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RenderBenchmark {
+	@Param({ "small", "medium", "large", "huge", "classic", "uniform" })
+	public String board;
+	
+	private BoardCanvas canvas;
+	private BufferedImage image;
+	
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		Board game = Boards.load(board, 2, 2, 1);
+		game.setState(Board.PLAYING);
+		canvas = new BoardCanvas(1, game);
+		Dimension d = canvas.getSize();
+		image = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_RGB);
+	}
+	
+	@Benchmark
+	public BufferedImage draw() {
+		Graphics g = image.getGraphics();
+		canvas.draw(g);
+		g.dispose();
+		return image;
+	}
+}
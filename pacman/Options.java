@@ -0,0 +1,231 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman;
+
+import pacman.control.Broadcaster;
+
+/**
+ * The options given on the command line. These are parsed in one place for
+ * both Main and Server, so that the two accept the same options, with the
+ * same defaults. Since the server-only jar can't display or replay a game,
+ * its usage leaves out the options which only Main understands.
+ *
+ * @author djp
+ *
+ */
+final class Options {
+	static final int DEFAULT_CLK_PERIOD = 20;
+	static final int DEFAULT_BROADCAST_CLK_PERIOD = 5;
+	static final int DEFAULT_MAX_BROADCAST_CLK_PERIOD = 80;
+	static final int DEFAULT_FRAME_RATE = 60;
+	static final int DEFAULT_PORT = 32768;
+
+	/**
+	 * The options understood by the server, along with their descriptions.
+	 */
+	private static final String[][] SERVER_INFO = {
+			{"server <n>", "Run in server mode, awaiting n client connections (default 1)"},
+			{"clock", "Set clock period (default 20ms)"},
+			{"bclock <ms>","Set broadcast clock period (default 5ms)"},
+			{"bmax <ms>","Set the longest period between frames sent to a slow client (default 80ms)"},
+			{"port", "Set port for use for connection (default 32768)"},
+			{"nhoming <n>","Set the number of \"homing\" ghosts"},
+			{"nrandom <n>","Set the number of \"random walking\" ghosts"},
+			{"record <file>","Record the game into <file>"},
+			{"checkpoint <dir>","Periodically save a server's game into <dir>, and restore it on restart"},
+			{"metrics <port>","Serve a server's metrics over HTTP on <port> (local connections only)"},
+			{"rooms <n>","Host up to n games at once, each awaiting the clients given by -server"},
+			{"workers <n>","Set the number of threads ticking a server's rooms (default one per processor)"},
+			{"aoi <tiles>","Mostly send each player only the board within this many tiles of them"},
+			{"fmin <n>","With -aoi, send each player the whole board at most once every n frames (default 4)"},
+			{"fmax <n>","With -aoi, send each player the whole board at least once every n frames (default 64)"}
+	};
+
+	/**
+	 * The options only understood by Main, along with their descriptions.
+	 */
+	private static final String[][] CLIENT_INFO = {
+			{"connect <url>", "Connect to server at <url>"},
+			{"spectate", "Watch the game on the server connected to, rather than play"},
+			{"relay <port>", "Pass on the game on the server connected to, to spectators connecting on <port>"},
+			{"fps <n>","Set maximum display frame rate (default 60)"},
+			{"replay <file>","Replay the game recorded in <file>"},
+			{"speed <x>","Set replay speed (default 1)"},
+			{"seek <tick>","Start replay from a given tick"},
+			{"headless","Replay as fast as possible without a display, timing each tick"}
+	};
+
+	String filename = null;
+	boolean server = false;
+	int nclients = 1;
+	String url = null;
+	int gameClock = DEFAULT_CLK_PERIOD;
+	int broadcastClock = DEFAULT_BROADCAST_CLK_PERIOD;
+	int maxBroadcastClock = DEFAULT_MAX_BROADCAST_CLK_PERIOD;
+	int fps = DEFAULT_FRAME_RATE;
+	int port = DEFAULT_PORT;
+	int nHomerGhosts = 2;
+	int nRandomGhosts = 2;
+	String recording = null;
+	String checkpoints = null;
+	int metricsPort = 0;
+	int nrooms = 0;
+	int interestRadius = 0;
+	int minFullFrames = Broadcaster.DEFAULT_MIN_FULL_FRAME_PERIOD;
+	int maxFullFrames = Broadcaster.DEFAULT_MAX_FULL_FRAME_PERIOD;
+	int nworkers = Runtime.getRuntime().availableProcessors();
+	String replay = null;
+	double speed = 1.0;
+	long seek = 0;
+	boolean headless = false;
+	boolean spectate = false;
+	int relayPort = 0;
+
+	/**
+	 * Parse the options given on the command line. If -help is given, then
+	 * the usage is printed and the program exits.
+	 *
+	 * @param args
+	 * @param serverOnly
+	 *            --- true if only the server's options should be described.
+	 * @return
+	 */
+	static Options parse(String[] args, boolean serverOnly) {
+		Options o = new Options();
+		for (int i = 0; i != args.length; ++i) {
+			if (args[i].startsWith("-")) {
+				String arg = args[i];
+				if(arg.equals("-help")) {
+					usage(serverOnly);
+					System.exit(0);
+				} else if(arg.equals("-server")) {
+					o.server = true;
+					o.nclients = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-connect")) {
+					o.url = args[++i];
+				} else if(arg.equals("-spectate")) {
+					o.spectate = true;
+				} else if(arg.equals("-relay")) {
+					o.relayPort = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-clock")) {
+					o.gameClock = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-bclock")) {
+					o.broadcastClock = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-bmax")) {
+					o.maxBroadcastClock = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-fps")) {
+					o.fps = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-port")) {
+					o.port = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-nhoming")) {
+					o.nHomerGhosts = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-nrandom")) {
+					o.nRandomGhosts = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-record")) {
+					o.recording = args[++i];
+				} else if(arg.equals("-checkpoint")) {
+					o.checkpoints = args[++i];
+				} else if(arg.equals("-metrics")) {
+					o.metricsPort = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-rooms")) {
+					o.nrooms = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-workers")) {
+					o.nworkers = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-aoi")) {
+					o.interestRadius = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-fmin")) {
+					o.minFullFrames = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-fmax")) {
+					o.maxFullFrames = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-replay")) {
+					o.replay = args[++i];
+				} else if(arg.equals("-speed")) {
+					o.speed = Double.parseDouble(args[++i]);
+				} else if(arg.equals("-seek")) {
+					o.seek = Long.parseLong(args[++i]);
+				} else if(arg.equals("-headless")) {
+					o.headless = true;
+				}
+			} else {
+				o.filename = args[i];
+			}
+		}
+		return o;
+	}
+
+	/**
+	 * Check the options which concern hosting a game. If any are invalid,
+	 * then the problem is printed and the program exits.
+	 */
+	void checkServer() {
+		if(maxBroadcastClock < broadcastClock) {
+			System.out.println("Broadcast clock period cannot exceed its maximum.");
+			System.exit(1);
+		} else if(minFullFrames < 1 || maxFullFrames < minFullFrames) {
+			System.out.println("Full frame periods must be at least 1, and the minimum cannot exceed the maximum.");
+			System.exit(1);
+		} else if(nrooms > 0 && (recording != null || checkpoints != null)) {
+			System.out.println("Cannot record or checkpoint a server hosting many rooms.");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Print the usage, describing either every option or only those of the
+	 * server.
+	 *
+	 * @param serverOnly
+	 */
+	static void usage(boolean serverOnly) {
+		if(serverOnly) {
+			System.out.println("Usage: java -jar pacman-server.jar <options> <board>");
+		} else {
+			System.out.println("Usage: java com.pacman.Main <options> ");
+		}
+		System.out.println("Options:");
+
+		// first, work out gap information
+		int gap = 0;
+		for (String[] p : SERVER_INFO) {
+			gap = Math.max(gap, p[0].length() + 5);
+		}
+		if(!serverOnly) {
+			for (String[] p : CLIENT_INFO) {
+				gap = Math.max(gap, p[0].length() + 5);
+			}
+		}
+
+		// now, print the information
+		print(SERVER_INFO, gap);
+		if(!serverOnly) {
+			print(CLIENT_INFO, gap);
+		}
+	}
+
+	private static void print(String[][] info, int gap) {
+		for (String[] p : info) {
+			System.out.print("  -" + p[0]);
+			int rest = gap - p[0].length();
+			for (int i = 0; i != rest; ++i) {
+				System.out.print(" ");
+			}
+			System.out.println(p[1]);
+		}
+	}
+}
@@ -0,0 +1,534 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import pacman.control.*;
+import pacman.game.*;
+
+/**
+ * The server hosts a multi-player game. It does no drawing whatsoever and,
+ * since nothing it uses depends upon AWT, it can be run on a machine without
+ * a display. This class can be run directly (which is what the server-only
+ * jar does), or via Main with the -server option.
+ * 
+ * Boards are always loaded in shared form, so that several servers hosting the
+ * same board on one machine share a single copy of its walls.
+ * 
+ * Players can join a game in progress, at the next pacman portal, and any
+ * number of spectators can watch it. Spectators are sent the same frames as
+ * the players, so each costs no more than the socket writes.
+ * 
+ * A server can also host many games at once, each in its own room. Every
+ * connection is routed to the room holding its session or, for a new player,
+ * to the room currently waiting for players (opening a new one if need be).
+ * The rooms are ticked by a shared pool of workers, rather than a clock
+ * thread each.
+ * 
+ * @author djp
+ * 
+ */
+public class Server {
+	private static final int HANDSHAKE_TIMEOUT = 5000; // ms
+	private static final int ACCEPT_BACKLOG = 1024; // connections
+	
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		
+		Options options = Options.parse(args, true);
+		if(options.filename == null) {
+			System.out.println("Board file must be provided in server mode.");
+			System.exit(1);
+		}
+		options.checkServer();
+		
+		try {
+			serve(options);
+		} catch(IOException ioe) {
+			System.out.println("I/O error: " + ioe.getMessage());
+			ioe.printStackTrace();
+			System.exit(1);
+		}
+		
+		System.exit(0);
+	}
+	
+	/**
+	 * Host the game given by a set of options, or many games at once if they
+	 * ask for rooms. This is used by Main with the -server option, as well as
+	 * by this class.
+	 * 
+	 * @param o
+	 * @throws IOException
+	 */
+	static void serve(Options o) throws IOException {
+		if(o.nrooms > 0) {
+			runRooms(o.port, o.nclients, o.nrooms, o.nworkers, o.gameClock,
+					o.broadcastClock, o.maxBroadcastClock, o.filename,
+					o.nHomerGhosts, o.nRandomGhosts, o.interestRadius,
+					o.minFullFrames, o.maxFullFrames, o.metricsPort);
+		}
+		Board board = BoardLoader.loadShared(o.filename,o.nHomerGhosts,o.nRandomGhosts);
+		board.setInterestRadius(o.interestRadius);
+		byte[] initial = prepare(board, o.port, o.recording, o.checkpoints);
+		Metrics metrics = metrics(o.filename, board, o.metricsPort);
+		run(o.port,o.nclients,o.gameClock,o.broadcastClock,o.maxBroadcastClock,
+				o.minFullFrames,o.maxFullFrames,board,initial,metrics);
+	}
+	
+	/**
+	 * Prepare a board for hosting. If a checkpoint directory is given, then
+	 * the game is restored from the last checkpoint for this port (if there is
+	 * one), and checkpointed from then on. If a recording file is given, then
+	 * the game is recorded into it.
+	 * 
+	 * @param board
+	 * @param port
+	 * @param recording
+	 *            --- file to record into, or null.
+	 * @param checkpoints
+	 *            --- directory to store checkpoints in, or null.
+	 * @return the state of the board before it was restored, which each new
+	 *         game begins from.
+	 * @throws IOException
+	 */
+	public static byte[] prepare(Board board, int port, String recording,
+			String checkpoints) throws IOException {
+		byte[] initial = board.toByteArray();
+		if(checkpoints != null) {
+			Files.createDirectories(Paths.get(checkpoints));
+			String checkpoint = Paths.get(checkpoints, "pacman-" + port + ".ckpt").toString();
+			if(Checkpointer.restore(checkpoint, board)) {
+				System.out.println("PACMAN SERVER RESTORED FROM " + checkpoint
+						+ " AT TICK " + board.tick());
+			}
+			Checkpointer.checkpoint(checkpoint, board);
+		}
+		if(recording != null) {
+			Recorder.record(recording, board);
+		}
+		return initial;
+	}
+	
+	/**
+	 * Create the metrics for a server hosting a given board, which are named
+	 * after the board's file. If a port is given, then the metrics are served
+	 * on it.
+	 * 
+	 * @param filename
+	 * @param board
+	 * @param port
+	 *            --- port to serve metrics on, or 0.
+	 * @return
+	 * @throws IOException
+	 */
+	public static Metrics metrics(String filename, Board board, int port) throws IOException {
+		Metrics metrics = new Metrics(name(filename), board);
+		if(port != 0) {
+			metrics.serve(port);
+			System.out.println("PACMAN SERVER METRICS ON PORT " + port);
+		}
+		return metrics;
+	}
+	
+	/**
+	 * Get the name of a board from its file.
+	 * 
+	 * @param filename
+	 * @return
+	 */
+	private static String name(String filename) {
+		String name = new File(filename).getName();
+		if(name.lastIndexOf('.') > 0) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+		return name;
+	}
+	
+	public static void run(int port, int nclients, int gameClock,
+			int broadcastClock, int maxBroadcastClock, int minFullFrames,
+			int maxFullFrames, Board game, byte[] initial, Metrics metrics) {		
+		ClockThread clk = new ClockThread(gameClock,game,metrics);	
+		Broadcaster broadcaster = new Broadcaster(broadcastClock,game);
+		broadcaster.setMaxPeriod(maxBroadcastClock);
+		broadcaster.setFullFramePeriods(minFullFrames, maxFullFrames);
+		broadcaster.start();
+		
+		// Listen for connections
+		System.out.println("PACMAN SERVER LISTENING ON PORT " + port);
+		System.out.println("PACMAN SERVER AWAITING " + nclients + " CLIENTS");
+		final Sessions sessions = new Sessions(game, Sessions.DEFAULT_GRACE_PERIOD);
+		final CountDownLatch players = new CountDownLatch(nclients);
+		try {
+			// Now, we await connections. Players can still join once the
+			// game has begun, and spectators can watch it.
+			final ServerSocket ss = new ServerSocket(port, ACCEPT_BACKLOG);
+			Thread acceptor = new Thread() {
+				public void run() {
+					try {
+						while (1 == 1) {
+							accept(ss, game, sessions, metrics, broadcaster, players);
+						}
+					} catch(IOException e) {
+						System.err.println("I/O error: " + e.getMessage());
+					}
+				}
+			};
+			acceptor.setDaemon(true);
+			acceptor.start();
+			while(players.getCount() > 0) {
+				try {
+					players.await();
+				} catch(InterruptedException e) {
+				}
+			}
+			System.out.println("ALL CLIENTS ACCEPTED --- GAME BEGINS");
+			multiUserGame(clk,game,initial,sessions);
+			System.out.println("ALL CLIENTS DISCONNECTED --- GAME OVER");
+		} catch(IOException e) {
+			System.err.println("I/O error: " + e.getMessage());
+		} 
+	}
+
+	/**
+	 * Host many games at once, each in a room which begins its game once
+	 * nclients players have joined. New rooms are opened as they're needed, up
+	 * to nrooms at a time. This never returns.
+	 * 
+	 * @param port
+	 * @param nclients
+	 * @param nrooms
+	 * @param nworkers
+	 *            --- number of threads ticking the rooms.
+	 * @param gameClock
+	 * @param broadcastClock
+	 * @param maxBroadcastClock
+	 *            --- longest period between frames sent to a slow client.
+	 * @param filename
+	 *            --- file of the board played in every room.
+	 * @param nHomerGhosts
+	 * @param nRandomGhosts
+	 * @param interestRadius
+	 *            --- radius of the window sent to each player, or 0 for the
+	 *            whole board.
+	 * @param minFullFrames
+	 *            --- fewest frames sent to a player for each covering the
+	 *            whole board, when they're sent windows.
+	 * @param maxFullFrames
+	 *            --- most frames sent to a player for each covering the whole
+	 *            board.
+	 * @param metricsPort
+	 *            --- port to serve metrics on, or 0.
+	 * @throws IOException
+	 */
+	public static void runRooms(int port, int nclients, int nrooms,
+			int nworkers, int gameClock, int broadcastClock,
+			int maxBroadcastClock, String filename,
+			int nHomerGhosts, int nRandomGhosts, int interestRadius,
+			int minFullFrames, int maxFullFrames, int metricsPort)
+			throws IOException {
+		TickScheduler scheduler = new TickScheduler(gameClock, nworkers);
+		CopyOnWriteArrayList<Room> rooms = new CopyOnWriteArrayList<Room>();
+		CopyOnWriteArrayList<Metrics> metrics = new CopyOnWriteArrayList<Metrics>();
+		if(metricsPort != 0) {
+			Metrics.serve(metricsPort, metrics);
+			System.out.println("PACMAN SERVER METRICS ON PORT " + metricsPort);
+		}
+		ServerSocket ss = new ServerSocket(port, ACCEPT_BACKLOG);
+		System.out.println("PACMAN SERVER LISTENING ON PORT " + port);
+		System.out.println("PACMAN SERVER HOSTING UP TO " + nrooms + " ROOMS OF "
+				+ nclients + " CLIENTS");
+		final Lobby lobby = new Lobby(nclients, nrooms, gameClock,
+				broadcastClock, maxBroadcastClock, filename, nHomerGhosts,
+				nRandomGhosts, interestRadius, minFullFrames, maxFullFrames,
+				scheduler, rooms, metrics);
+		while(1 == 1) {
+			final Socket s = ss.accept();
+			System.out.println("ACCEPTED CONNECTION FROM: " + s.getInetAddress());
+			// NOTE: the handshake is done on its own thread, so that a client
+			// which is slow to send its hello (or to read its welcome) can't
+			// hold up any other connection.
+			new Thread() {
+				public void run() {
+					lobby.join(s);
+				}
+			}.start();
+		}
+	}
+	
+	/**
+	 * The lobby of a server hosting many rooms routes each new connection to
+	 * its room, opening new rooms as they're needed. Connections are routed
+	 * one at a time, but their handshakes can proceed in parallel; so that a
+	 * room doesn't take more players than it has places for, each new player
+	 * reserves a place in the room they're routed to.
+	 * 
+	 * @author djp
+	 * 
+	 */
+	private static final class Lobby {
+		private final int nclients;
+		private final int nrooms;
+		private final int gameClock;
+		private final int broadcastClock;
+		private final int maxBroadcastClock;
+		private final String filename;
+		private final int nHomerGhosts;
+		private final int nRandomGhosts;
+		private final int interestRadius;
+		private final int minFullFrames;
+		private final int maxFullFrames;
+		private final TickScheduler scheduler;
+		private final List<Room> rooms;
+		private final List<Metrics> metrics;
+		private int nextId = 1;
+		
+		public Lobby(int nclients, int nrooms, int gameClock,
+				int broadcastClock, int maxBroadcastClock, String filename,
+				int nHomerGhosts, int nRandomGhosts, int interestRadius,
+				int minFullFrames, int maxFullFrames, TickScheduler scheduler,
+				List<Room> rooms, List<Metrics> metrics) {
+			this.nclients = nclients;
+			this.nrooms = nrooms;
+			this.gameClock = gameClock;
+			this.broadcastClock = broadcastClock;
+			this.maxBroadcastClock = maxBroadcastClock;
+			this.filename = filename;
+			this.nHomerGhosts = nHomerGhosts;
+			this.nRandomGhosts = nRandomGhosts;
+			this.interestRadius = interestRadius;
+			this.minFullFrames = minFullFrames;
+			this.maxFullFrames = maxFullFrames;
+			this.scheduler = scheduler;
+			this.rooms = rooms;
+			this.metrics = metrics;
+		}
+		
+		/**
+		 * Read the hello from a newly accepted connection, and then route it
+		 * into a room. The connection is closed if no hello arrives within
+		 * HANDSHAKE_TIMEOUT.
+		 * 
+		 * @param s
+		 */
+		public void join(Socket s) {
+			try {
+				s.setSoTimeout(HANDSHAKE_TIMEOUT);
+				DataInputStream input = new DataInputStream(s.getInputStream());
+				int uid = input.readInt();
+				long token = input.readLong();
+				byte[] hash = Protocol.readHash(input);
+				s.setSoTimeout(0);
+				boolean player = uid != Protocol.SPECTATOR && (uid == 0 || !isResuming(uid, token));
+				Room room = route(uid, token, player);
+				if(room == null) {
+					// every room is busy
+					Protocol.writeRefusal(new DataOutputStream(s.getOutputStream()));
+					s.close();
+					System.out.println("CONNECTION REFUSED FROM: " + s.getInetAddress());
+				} else if(!room.accept(s, uid, token, hash, player)) {
+					System.out.println("CONNECTION REFUSED FROM: " + s.getInetAddress());
+				}
+			} catch(IOException e) {
+				System.err.println("I/O error: " + e.getMessage());
+				try {
+					s.close();
+				} catch(IOException ex) {
+				}
+			}
+		}
+		
+		private boolean isResuming(int uid, long token) {
+			for(Room r : rooms) {
+				if(r.hasSession(uid, token)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * Find the room for a connection, opening a new one if need be, and
+		 * reserve a place in it for a new player.
+		 * 
+		 * @param uid
+		 * @param token
+		 * @param player
+		 *            --- true if this is a new player.
+		 * @return the room, or null if every room is busy.
+		 * @throws IOException
+		 */
+		private synchronized Room route(int uid, long token, boolean player)
+				throws IOException {
+			// First, forget about rooms whose games are over
+			for(Room r : rooms) {
+				if(r.isFinished()) {
+					rooms.remove(r);
+					metrics.remove(r.metrics());
+				}
+			}
+			Room room = Server.route(rooms, uid, token);
+			if(room == null && rooms.size() < nrooms) {
+				Board board = BoardLoader.loadShared(filename, nHomerGhosts, nRandomGhosts);
+				board.setInterestRadius(interestRadius);
+				int id = nextId++;
+				Metrics m = new Metrics(name(filename), id, board);
+				room = new Room(id, board, m, nclients, gameClock,
+						broadcastClock, maxBroadcastClock, minFullFrames,
+						maxFullFrames);
+				rooms.add(room);
+				metrics.add(m);
+				scheduler.schedule(room);
+				System.out.println("ROOM " + id + " OPENED");
+			}
+			if(room != null && player && !room.reserve()) {
+				return null;
+			}
+			return room;
+		}
+	}
+	
+	/**
+	 * Find the room a connection belongs in: either the room holding the
+	 * session it's resuming, or else a room still waiting for players. A
+	 * spectator watches the oldest room.
+	 * 
+	 * @param rooms
+	 * @param uid
+	 * @param token
+	 * @return the room, or null if there is none.
+	 */
+	private static Room route(List<Room> rooms, int uid, long token) {
+		if(uid == Protocol.SPECTATOR) {
+			return rooms.isEmpty() ? null : rooms.get(0);
+		} else if(uid != 0) {
+			for(Room r : rooms) {
+				if(r.hasSession(uid, token)) {
+					return r;
+				}
+			}
+		}
+		for(Room r : rooms) {
+			if(r.isOpen()) {
+				return r;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Accept a connection, and start a master for it if its handshake
+	 * succeeds. The connection may be from a player, or a spectator. The
+	 * handshake is done on its own thread, so that a client which is slow to
+	 * send its hello can't hold up any other connection; the connection is
+	 * closed if no hello arrives within HANDSHAKE_TIMEOUT.
+	 * 
+	 * @param ss
+	 * @param game
+	 * @param sessions
+	 * @param metrics
+	 * @param broadcaster
+	 * @param players
+	 *            --- counted down whenever a player's connection is accepted.
+	 * @throws IOException
+	 */
+	private static void accept(ServerSocket ss, final Board game,
+			final Sessions sessions, final Metrics metrics,
+			final Broadcaster broadcaster, final CountDownLatch players)
+			throws IOException {
+		// 	Wait for a socket
+		final Socket s = ss.accept();
+		System.out.println("ACCEPTED CONNECTION FROM: " + s.getInetAddress());
+		new Thread() {
+			public void run() {
+				Master master = new Master(s, game, sessions, metrics, broadcaster);
+				try {
+					s.setSoTimeout(HANDSHAKE_TIMEOUT);
+					if(master.handshake()) {
+						s.setSoTimeout(0);
+						master.start();
+						if(!master.isSpectator()) {
+							players.countDown();
+						}
+						return;
+					}
+					System.out.println("CONNECTION REFUSED FROM: " + s.getInetAddress());
+				} catch(IOException e) {
+					System.err.println("I/O error: " + e.getMessage());
+					try {
+						s.close();
+					} catch(IOException ex) {
+					}
+				}
+			}
+		}.start();
+	}
+	
+	/**
+	 * The following method controls a multi-user game. When a given game is
+	 * over, it will simply restart the game with whatever players are
+	 * remaining. However, if all players have disconnected (and their grace
+	 * periods have expired) then it will stop.
+	 * 
+	 * @param clk
+	 * @param game
+	 * @param state
+	 *            --- state of the board before any game was played on it (or
+	 *            restored into it), which it's reset to after each game.
+	 * @param sessions
+	 * @throws IOException
+	 */
+	private static void multiUserGame(ClockThread clk, Board game,
+			byte[] state, Sessions sessions) throws IOException {
+		clk.start(); // start the clock ticking!!!				
+		
+		// loop forever
+		while(sessions.isActive()) {
+			game.setState(Board.READY);
+			pause(3000);
+			game.setState(Board.PLAYING);
+			// now, wait for the game to finish
+			while(game.state() == Board.PLAYING) {
+				Thread.yield();
+			}
+			// If we get here, then we're in game over mode
+			pause(3000);
+			// Reset board state, and then put back anyone who joined
+			// during the game (or reconnected after a restore)
+			game.setState(Board.WAITING);
+			game.fromByteArray(state);			
+			sessions.rejoin();
+		}
+	}
+
+	private static void pause(int delay) {
+		try {
+			Thread.sleep(delay);
+		} catch(InterruptedException e){			
+		}
+	}
+}
@@ -0,0 +1,43 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import jdk.jfr.*;
+
+/**
+ * A flight recorder event emitted for each frame the broadcaster sends. Its
+ * duration covers taking the board's latest snapshot and then handing it to
+ * each master (but not sending it).
+ * 
+ * @author djp
+ * 
+ */
+@Name("pacman.Broadcast")
+@Label("Broadcast")
+@Category({ "Pacman", "Network" })
+@Description("Frame sent by the broadcaster")
+@StackTrace(false)
+final class BroadcastEvent extends Event {
+	@Label("Connections")
+	int connections;
+	
+	@Label("Bytes")
+	@DataAmount
+	int bytes;
+}
@@ -0,0 +1,214 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import pacman.game.Board;
+import pacman.game.SpatialIndex;
+
+/**
+ * The broadcaster takes the latest snapshot of the board once every broadcast
+ * period, and hands it to each master connection. Since the snapshot is
+ * published by the clock thread at the end of each tick, the broadcaster never
+ * waits for the board's lock. Handing over a frame never
+ * blocks; it's up to each master to send its frames as fast as its slave can
+ * take them.
+ * 
+ * A broadcaster can also be given its frames, rather than taking them from a
+ * board (e.g. by a relay, which passes on the frames it receives). In this
+ * case, it isn't started, and each frame is handed over as it's published.
+ * 
+ * @author djp
+ * 
+ */
+public final class Broadcaster extends Thread {
+	/**
+	 * The default limit on the number of broadcast periods between frames
+	 * sent to a slow slave.
+	 */
+	public static final int DEFAULT_MAX_INTERVAL = 16;
+	
+	/**
+	 * The default bounds on the number of frames sent to a player for each
+	 * one which covers the whole board, when they're sent windows.
+	 */
+	public static final int DEFAULT_MIN_FULL_FRAME_PERIOD = 4;
+	public static final int DEFAULT_MAX_FULL_FRAME_PERIOD = 64;
+	
+	private final int period; // in ms
+	private final Board board;
+	private volatile int maxInterval = DEFAULT_MAX_INTERVAL;
+	private volatile int minFullFramePeriod = DEFAULT_MIN_FULL_FRAME_PERIOD;
+	private volatile int maxFullFramePeriod = DEFAULT_MAX_FULL_FRAME_PERIOD;
+	private final CopyOnWriteArrayList<Master> masters = new CopyOnWriteArrayList<Master>();
+	private volatile boolean halted;
+	
+	public Broadcaster(int period, Board board) {
+		this.period = period;
+		this.board = board;
+		setDaemon(true);
+	}
+	
+	/**
+	 * Construct a broadcaster which is given its frames by publish().
+	 * 
+	 * @param period
+	 *            --- expected time between frames (in ms).
+	 */
+	public Broadcaster(int period) {
+		this(period, null);
+	}
+	
+	/**
+	 * Get the time between frames (in ms).
+	 * 
+	 * @return
+	 */
+	public int period() {
+		return period;
+	}
+	
+	/**
+	 * Limit the time between frames sent to a slow slave. This must be called
+	 * before any masters are added.
+	 * 
+	 * @param maxPeriod
+	 *            --- the longest time between frames (in ms).
+	 */
+	public void setMaxPeriod(int maxPeriod) {
+		maxInterval = Math.max(1, maxPeriod / period);
+	}
+	
+	/**
+	 * Get the largest number of broadcast periods between frames sent to a
+	 * slave.
+	 * 
+	 * @return
+	 */
+	public int maxInterval() {
+		return maxInterval;
+	}
+	
+	/**
+	 * Bound the number of frames sent to a player for each one which covers
+	 * the whole board, when they're sent windows. This must be called before
+	 * any masters are added.
+	 * 
+	 * @param min
+	 *            --- the fewest frames for each covering the whole board.
+	 * @param max
+	 *            --- the most frames for each covering the whole board.
+	 */
+	public void setFullFramePeriods(int min, int max) {
+		minFullFramePeriod = Math.max(1, min);
+		maxFullFramePeriod = Math.max(minFullFramePeriod, max);
+	}
+	
+	public int minFullFramePeriod() {
+		return minFullFramePeriod;
+	}
+	
+	public int maxFullFramePeriod() {
+		return maxFullFramePeriod;
+	}
+	
+	public void add(Master master) {
+		masters.add(master);
+	}
+	
+	public void remove(Master master) {
+		masters.remove(master);
+	}
+	
+	/**
+	 * Stop broadcasting, since the board is no longer being played.
+	 */
+	public void halt() {
+		halted = true;
+	}
+	
+	public void run() {
+		long next = System.nanoTime();
+		while(!halted) {
+			next += period * 1000000L;
+			long remaining;
+			while((remaining = next - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(remaining);
+			}
+			if(!masters.isEmpty()) {
+				try {
+					broadcast();
+				} catch(IOException e) {
+					// can't happen, since we're writing to a byte array
+					throw new RuntimeException(e);
+				}
+			}
+			if(System.nanoTime() - next > period * 1000000L) {
+				// we've fallen behind, so just resynchronise.
+				next = System.nanoTime();
+			}
+		}
+	}
+	
+	private void broadcast() throws IOException {
+		publish(board.snapshot(), board.index());
+	}
+	
+	/**
+	 * Hand a frame to each master connection. This never blocks.
+	 * 
+	 * @param frame
+	 */
+	public void publish(byte[] frame) {
+		try {
+			publish(frame, null);
+		} catch(IOException e) {
+			// can't happen, since there are no windows to encode
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Hand a frame to each master connection, along with the spatial index
+	 * from which each player's window is encoded (if any).
+	 * 
+	 * @param frame
+	 * @param index
+	 *            --- spatial index of the board, or null if there is none.
+	 * @throws IOException
+	 */
+	private void publish(byte[] frame, SpatialIndex index) throws IOException {
+		BroadcastEvent event = new BroadcastEvent();
+		event.begin();
+		int n = 0;
+		for(Master m : masters) {
+			m.offer(frame, index);
+			n++;
+		}
+		event.end();
+		if(event.shouldCommit()) {
+			event.connections = n;
+			event.bytes = frame.length;
+			event.commit();
+		}
+	}
+}
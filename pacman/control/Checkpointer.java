@@ -0,0 +1,156 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package pacman.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import pacman.game.Board;
+import pacman.game.Journal;
+
+/**
+ * The checkpointer periodically saves the state of a game, so that it can be
+ * restored if the server is restarted (e.g. after a crash). Each checkpoint
+ * is a keyframe of the board, which captures everything about the game (the
+ * pills, characters, scores, lives, uids, etc).
+ * 
+ * Keyframes are taken on the clock thread, which is cheap, but written to
+ * disk by the checkpointer's own thread. Only the most recent keyframe is
+ * kept, and any older keyframe which hasn't been written yet is simply
+ * dropped; thus, if writing falls behind, checkpoints are batched rather than
+ * queued. Each checkpoint is written to a temporary file, forced to disk, and
+ * then moved over the previous checkpoint. This way, there is always a
+ * complete checkpoint on disk.
+ * 
+ * @author djp
+ * 
+ */
+public final class Checkpointer extends Thread implements Journal {
+	/**
+	 * Every checkpoint begins with this magic number ("PMC1").
+	 */
+	public static final int MAGIC = 0x504D4331;
+	
+	public static final int DEFAULT_CHECKPOINT_PERIOD = 50;
+	
+	private final Path path;
+	private final int width;
+	private final int height;
+	private final AtomicReference<byte[]> latest = new AtomicReference<byte[]>();
+	
+	private Checkpointer(Path path, Board board) {
+		this.path = path;
+		this.width = board.width();
+		this.height = board.height();
+		setDaemon(true);
+	}
+	
+	/**
+	 * Start checkpointing a given board into a given file.
+	 * 
+	 * @param filename
+	 * @param board
+	 * @return
+	 */
+	public static Checkpointer checkpoint(String filename, Board board) {
+		Checkpointer checkpointer = new Checkpointer(Paths.get(filename), board);
+		checkpointer.start();
+		board.addJournal(checkpointer, DEFAULT_CHECKPOINT_PERIOD);
+		return checkpointer;
+	}
+	
+	/**
+	 * Restore a board from the checkpoint in a given file, if there is one.
+	 * 
+	 * @param filename
+	 * @param board
+	 * @return true if the board was restored.
+	 * @throws IOException
+	 */
+	public static boolean restore(String filename, Board board) throws IOException {
+		Path path = Paths.get(filename);
+		if(!Files.exists(path)) {
+			return false;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		try {
+			if(buffer.getInt() != MAGIC) {
+				throw new IOException("Checkpoint \"" + filename + "\" is corrupt.");
+			}
+			if(buffer.getInt() != board.width() || buffer.getInt() != board.height()) {
+				throw new IOException("Checkpoint \"" + filename + "\" is for a different board.");
+			}
+			byte[] keyframe = new byte[buffer.getInt()];
+			buffer.get(keyframe);
+			board.fromKeyframe(keyframe);
+			return true;
+		} catch(RuntimeException e) {
+			// e.g. buffer underflow
+			throw new IOException("Checkpoint \"" + filename + "\" is corrupt.");
+		}
+	}
+	
+	public void input(long tick, int uid, int direction) {
+		// inputs aren't needed, since every checkpoint is a keyframe
+	}
+	
+	public void keyframe(long tick, byte[] keyframe) {
+		latest.set(keyframe);
+		LockSupport.unpark(this);
+	}
+	
+	public void run() {
+		Path tmp = Paths.get(path.toString() + ".tmp");
+		while(1 == 1) {
+			byte[] keyframe = latest.getAndSet(null);
+			if(keyframe == null) {
+				LockSupport.park();
+				continue;
+			}
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate(16 + keyframe.length);
+				buffer.putInt(MAGIC);
+				buffer.putInt(width);
+				buffer.putInt(height);
+				buffer.putInt(keyframe.length);
+				buffer.put(keyframe);
+				buffer.flip();
+				try (FileChannel channel = FileChannel.open(tmp,
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+					while(buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+					channel.force(false);
+				}
+				Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch(IOException e) {
+				System.err.println("I/O error writing checkpoint: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -17,42 +17,76 @@
 
 package pacman.control;
 
-import pacman.game.*;
-import pacman.ui.Board;
-import pacman.ui.BoardFrame;
+import java.util.concurrent.locks.LockSupport;
+
+import pacman.game.Board;
 
 /**
  * The Clock Thread is responsible for producing a consistent "pulse" which is
- * used to update the game state, and refresh the display. Setting the pulse
- * rate too high may cause problems, when the point is reached at which the work
- * done to service a given pulse exceeds the time between pulses.
+ * used to update the game state. Setting the pulse rate too high may cause
+ * problems, when the point is reached at which the work done to service a
+ * given pulse exceeds the time between pulses.
+ * 
+ * Pulses are scheduled at a fixed rate, rather than with a fixed delay
+ * between them, so that the time spent in a tick does not cause the
+ * simulation to drift. Refreshing the display is not the job of this thread;
+ * that is done by a separate RenderThread, so that a slow paint cannot hold up
+ * the next tick.
  * 
  * @author djp
  * 
  */
 public class ClockThread extends Thread {
-	private final int delay; // delay between pulses in us
+	private final int delay; // delay between pulses in ms
 	private final Board game;
-	private final BoardFrame display;
+	private final Metrics metrics;
+	
+	public ClockThread(int delay, Board game) {
+		this(delay, game, null);
+	}
 	
-	public ClockThread(int delay, Board game, BoardFrame display) {
+	/**
+	 * Construct a clock thread which records the duration of each tick, and
+	 * how far it overran the next, in the given metrics.
+	 * 
+	 * @param delay
+	 * @param game
+	 * @param metrics
+	 *            --- metrics to record into, or null.
+	 */
+	public ClockThread(int delay, Board game, Metrics metrics) {
 		this.delay = delay;
 		this.game = game;
-		this.display = display;
+		this.metrics = metrics;
 	}
 	
 	public void run() {
+		// from now on, the board is only changed by this thread
+		game.own();
+		long period = delay * 1000000L;
+		long next = System.nanoTime();
 		while(1 == 1) {
-			// Loop forever			
-			try {
-				Thread.sleep(delay);
-				game.clockTick();
-				if(display != null) {
-					display.repaint();
+			// Loop forever
+			next += period;
+			long remaining;
+			while((remaining = next - System.nanoTime()) > 0) {
+				// parking may return early, hence the loop
+				LockSupport.parkNanos(remaining);
+			}
+			long start = System.nanoTime();
+			game.clockTick();
+			long end = System.nanoTime();
+			if(metrics != null) {
+				metrics.tickDuration.record(end - start);
+				if(end > next + period) {
+					metrics.tickOverrun.record(end - (next + period));
 				}
-			} catch(InterruptedException e) {
-				// should never happen
-			}			
+			}
+			if(System.nanoTime() - next > period) {
+				// we've fallen more than a whole pulse behind. Rather than
+				// firing a burst of ticks to catch up, we just resynchronise.
+				next = System.nanoTime();
+			}
 		}
 	}
 }
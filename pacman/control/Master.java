@@ -15,81 +15,550 @@
 //
 // Copyright 2010, David James Pearce.
 
+
 package pacman.control;
 
-import java.util.*;
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import pacman.game.*;
-import pacman.ui.Board;
 
 /**
  * A master connection receives events from a slave connection via a socket.
  * These events are registered with the board. The master connection is also
  * responsible for transmitting information to the slave about the current board
  * state.
+ * 
+ * The connection begins with the handshake described in Protocol, during which
+ * the master attaches to a session. This must be done before the master is
+ * started. If the connection is lost, the master detaches from its session so
+ * that the player can resume it later. A spectator has no session, and its
+ * directions are ignored.
+ * 
+ * Frames are encoded by the broadcaster, and handed to the master's mailbox.
+ * The mailbox holds only the latest frame: if the slave can't keep up, stale
+ * frames are simply overwritten rather than queued, so a slow slave never
+ * grows the server's memory. Frames are sent by a separate thread, so a slow
+ * slave never holds up anyone else (or its own directions). Likewise, the
+ * slave acknowledges the frames it receives, and the master stops sending
+ * once too many are unacknowledged, so that stale frames can't pile up in the
+ * socket buffers instead. Furthermore, the
+ * master adapts how often it sends to how fast the slave consumes them: each
+ * time a frame is overwritten, takes longer to send than the time between
+ * frames, or the round trip time measured by a ping shows frames queueing up
+ * on the way to the slave, the interval between frames is doubled (up to the
+ * broadcaster's limit); each time a ping shows they aren't, it is halved
+ * again, as it is reduced after a run of frames sent on time. Pings sent
+ * before the slave has acknowledged any frames are ignored, since their round
+ * trip includes the time it took to start up. Thus, a slave on a fast network
+ * is sent every frame, whilst a slave on a slow one is sent only as many as it
+ * can take.
+ * 
+ * If the board publishes a spatial index, then a player is mostly sent just
+ * the window onto the board around their pacman, so the cost of each frame
+ * depends on how busy that part of the board is rather than on the size of
+ * the board. Every so often, they're sent the whole board instead, so that the
+ * rest of it is still updated, albeit less often. How often depends on the
+ * capacity of the connection to the slave, such that the whole board takes
+ * up no more than FULL_FRAME_SHARE of it, within the bounds given by the
+ * broadcaster. The capacity is estimated using the pings: each ping follows a
+ * frame (preferably one covering the whole board), and so the time by which
+ * its round trip exceeds the shortest seen is roughly the time that frame took
+ * to arrive. Any time spent queued behind earlier frames makes this an
+ * underestimate, and so the highest recent estimate is used. Spectators are
+ * always sent the whole board.
+ * 
+ * Each frame sent emits a SendEvent, which can be seen using the flight
+ * recorder, and is recorded in the server's metrics.
  */
 public final class Master extends Thread {
+	/**
+	 * The number of frames which must be sent on time before the interval is
+	 * reduced.
+	 */
+	private static final int RECOVERY_FRAMES = 50;
+	
+	/**
+	 * The maximum number of frames which can be sent but not yet acknowledged
+	 * by the slave.
+	 */
+	private static final int WINDOW = 32;
+	
+	/**
+	 * The largest share of the connection's capacity which frames covering
+	 * the whole board should take up.
+	 */
+	private static final double FULL_FRAME_SHARE = 0.25;
+	
+	/**
+	 * The shortest time over which bytes are taken to have arrived, when
+	 * estimating the capacity. Any less is lost in the noise.
+	 */
+	private static final long MIN_DELIVERY_TIME = 1000000L; // ns
+	
+	/**
+	 * The capacity estimated is the highest recent estimate, which decays by
+	 * 1/CAPACITY_DECAY with every ping.
+	 */
+	private static final int CAPACITY_DECAY = 32;
+	
+	/**
+	 * The amount by which the round trip time must exceed the shortest seen
+	 * (as well as doubling it), before frames are considered to be queueing
+	 * up.
+	 */
+	private static final long RTT_SLACK = 10000000L; // ns
+	
+	/**
+	 * The time at which each of the last PROBES pings was sent, along with the
+	 * size of the frame before it, is kept until its pong arrives.
+	 */
+	private static final int PROBES = 8;
+	
 	private final Board board;
-	private final int broadcastClock;
-	private final int uid;
 	private final Socket socket;
+	private final Sessions sessions;
+	private final Metrics metrics;
+	private final Broadcaster broadcaster;
+	private final Sender sender = new Sender();
+	private final AtomicReference<byte[]> mailbox = new AtomicReference<byte[]>();
+	private final AtomicLongArray probes = new AtomicLongArray(PROBES * 2);
+	private Sessions.Session session;
+	
+	// The following are only used by the broadcaster's thread
+	private int offers;
+	private int sinceFull = Integer.MAX_VALUE; // windows since the whole board
+	
+	// The following are only written by the broadcaster's thread
+	private volatile long framesDropped;
+	private volatile int fullFramePeriod;
+	
+	// The following are only written by the master's thread
+	private volatile long framesAcked;
+	private volatile long capacity; // bytes per second
+	private volatile long rtt; // smoothed, in ns
+	private volatile long lastRtt; // in ns
+	private volatile long minRtt = Long.MAX_VALUE;
+	private volatile long pongs;
+	private volatile long firstAck; // time of the first acknowledgement
+	
+	// The following are only written by the sender's thread
+	private volatile int interval = 1;
+	private volatile long bytesSent;
+	private volatile long framesSent;
+	private volatile long blockedTime;
 
-	public Master(Socket socket, int uid, int broadcastClock, Board board) {
+	public Master(Socket socket, Board board, Sessions sessions,
+			Metrics metrics, Broadcaster broadcaster) {
 		this.board = board;
-		this.broadcastClock = broadcastClock;
 		this.socket = socket;
-		this.uid = uid;
+		this.sessions = sessions;
+		this.metrics = metrics;
+		this.broadcaster = broadcaster;
+		this.fullFramePeriod = broadcaster.minFullFramePeriod();
+	}
+	
+	public int uid() {
+		return session != null ? session.uid() : Protocol.SPECTATOR;
+	}
+	
+	public boolean isSpectator() {
+		return session == null;
+	}
+	
+	public long bytesSent() {
+		return bytesSent;
+	}
+	
+	public long framesSent() {
+		return framesSent;
+	}
+	
+	/**
+	 * Get the number of frames which have been sent, but not yet acknowledged
+	 * by the slave. This is the depth of the send queue, not counting the
+	 * frame (if any) waiting in the mailbox.
+	 * 
+	 * @return
+	 */
+	public long unackedFrames() {
+		return Math.max(0, framesSent - framesAcked);
+	}
+	
+	/**
+	 * Get the number of frames which were overwritten before they could be
+	 * sent.
+	 * 
+	 * @return
+	 */
+	public long framesDropped() {
+		return framesDropped;
+	}
+	
+	/**
+	 * Get the number of broadcast periods between frames sent to this slave.
+	 * 
+	 * @return
+	 */
+	public int interval() {
+		return interval;
+	}
+	
+	/**
+	 * Get the smoothed round trip time to the slave (in ns), or 0 if it's not
+	 * been measured yet. This doesn't include the time taken by the frame
+	 * before each ping to arrive.
+	 * 
+	 * @return
+	 */
+	public long rtt() {
+		return rtt;
+	}
+	
+	/**
+	 * Get the estimated capacity (in bytes per second) of the connection to
+	 * the slave, or 0 if it's not been estimated yet.
+	 * 
+	 * @return
+	 */
+	public long capacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Get the number of frames sent for each one which covers the whole
+	 * board, when windows are being sent.
+	 * 
+	 * @return
+	 */
+	public int fullFramePeriod() {
+		return fullFramePeriod;
+	}
+	
+	/**
+	 * Get the total time (in ns) spent writing frames to the socket. This
+	 * grows quickly if the slave can't keep up with the frames being sent.
+	 * 
+	 * @return
+	 */
+	public long blockedTime() {
+		return blockedTime;
 	}
 
+	/**
+	 * Perform the handshake with the slave. This reads the slave's hello,
+	 * attaches to a session and then writes the welcome. If the connection is
+	 * refused, then the socket is closed.
+	 * 
+	 * @return true if the connection was accepted.
+	 * @throws IOException
+	 */
+	public boolean handshake() throws IOException {
+		DataInputStream input = new DataInputStream(socket.getInputStream());
+		int uid = input.readInt();
+		long token = input.readLong();
+		byte[] hash = Protocol.readHash(input);
+		return handshake(uid, token, hash);
+	}
+	
+	/**
+	 * Complete the handshake with the slave, whose hello has already been read
+	 * (e.g. to decide which room it belongs in).
+	 * 
+	 * @param uid
+	 * @param token
+	 * @param hash
+	 * @return true if the connection was accepted.
+	 * @throws IOException
+	 */
+	public boolean handshake(int uid, long token, byte[] hash) throws IOException {
+		DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+		if(uid == Protocol.SPECTATOR) {
+			Protocol.writeWelcome(output, Protocol.SPECTATOR, 0, board, hash);
+			System.out.println("SPECTATOR CONNECTED");
+			return true;
+		}
+		session = sessions.attach(this, uid, token);
+		if(session == null) {
+			Protocol.writeRefusal(output);
+			socket.close();
+			return false;
+		}
+		if(!Protocol.writeWelcome(output, session.uid(), session.token(), board, hash)) {
+			System.out.println("PLAYER " + session.uid() + " HAS BOARD CACHED");
+		}
+		return true;
+	}
+	
+	/**
+	 * Hand the latest frame to this master. This is called by the broadcaster
+	 * every broadcast period, and never blocks.
+	 * 
+	 * @param frame
+	 *            --- the whole board.
+	 * @param index
+	 *            --- spatial index of the board, or null if there is none.
+	 * @throws IOException
+	 */
+	void offer(byte[] frame, SpatialIndex index) throws IOException {
+		if(++offers < interval) {
+			return; // not time to send yet
+		}
+		offers = 0;
+		byte[] window = null;
+		if(index != null && session != null && sinceFull < fullFramePeriod(frame.length) - 1) {
+			window = index.window(session.uid());
+		}
+		if(window != null) {
+			frame = window;
+			sinceFull++;
+		} else {
+			sinceFull = 0;
+		}
+		if(mailbox.getAndSet(frame) != null) {
+			framesDropped++;
+		}
+		LockSupport.unpark(sender);
+	}
+
+	/**
+	 * Work out how many frames to send for each one which covers the whole
+	 * board, such that those covering the whole board take up no more than
+	 * FULL_FRAME_SHARE of the connection's capacity.
+	 * 
+	 * @param fullSize
+	 *            --- size of a frame covering the whole board.
+	 * @return
+	 */
+	private int fullFramePeriod(int fullSize) {
+		long c = capacity;
+		if(c > 0) {
+			double fps = 1000.0 / (broadcaster.period() * interval);
+			double period = (fullSize * fps) / (c * FULL_FRAME_SHARE);
+			fullFramePeriod = (int) Math.min(broadcaster.maxFullFramePeriod(),
+					Math.max(broadcaster.minFullFramePeriod(), Math.ceil(period)));
+		}
+		return fullFramePeriod;
+	}
+	
 	@Override
 	public void run() {
+		int uid = uid();
+		metrics.connected(this);
+		sender.start();
+		broadcaster.add(this);
 		try {
 			DataInputStream input = new DataInputStream(socket.getInputStream());
-			DataOutputStream output = new DataOutputStream(socket.getOutputStream());
-			// First, write the period to the stream
-			output.writeInt(uid);
-			output.writeInt(board.width());
-			output.writeInt(board.height());
-			output.write(board.wallsToByteArray());
-			boolean exit=false;
-			while(!exit) {
-				try {
-
-					if(input.available() != 0) {
-
-						// read direction event from client.
-						int dir = input.readInt();
-						switch(dir) {
-							case 1:
-								board.player(uid).moveUp();
-								break;
-							case 2:
-								board.player(uid).moveDown();
-								break;
-							case 3:
-								board.player(uid).moveRight();
-								break;
-							case 4:
-								board.player(uid).moveLeft();
-								break;
-						}
+			while(1 == 1) {
+				// read direction event (or acknowledgement) from client.
+				int dir = input.readInt();
+				if(dir == Protocol.ACK) {
+					acknowledged(input.readLong());
+					LockSupport.unpark(sender);
+					continue;
+				} else if(dir == Protocol.PONG) {
+					long timestamp = input.readLong();
+					long ack = firstAck;
+					if(ack != 0 && timestamp >= ack) {
+						measured(System.nanoTime() - timestamp, probed(timestamp));
 					}
-
-					// Now, broadcast the state of the board to client
-					byte[] state = board.toByteArray();
-					output.writeInt(state.length);
-					output.write(state);
-					output.flush();
-					Thread.sleep(broadcastClock);
-				} catch(InterruptedException e) {
+					continue;
 				}
+				if(session != null) {
+					board.input(uid, dir);
+				}
+			}
+		} catch(IOException e) {
+			if(session == null) {
+				System.err.println("SPECTATOR DISCONNECTED");
+			} else {
+				if(sessions.isAttached(this, session)) {
+					System.err.println("PLAYER " + uid + " DISCONNECTED");
+				}
+				sessions.detach(this, session);
+			}
+		} finally {
+			broadcaster.remove(this);
+			metrics.disconnected(this);
+			close();
+		}
+	}
+	
+	/**
+	 * Record that the slave has received a given number of frames.
+	 * 
+	 * @param acked
+	 */
+	private void acknowledged(long acked) {
+		if(firstAck == 0) {
+			firstAck = System.nanoTime();
+		}
+		framesAcked = acked;
+	}
+	
+	/**
+	 * Find the size of the frame sent before a given ping.
+	 * 
+	 * @param timestamp
+	 *            --- the time the ping was sent.
+	 * @return the size (in bytes), or 0 if the ping is unknown.
+	 */
+	private long probed(long timestamp) {
+		for(int i=0;i!=PROBES;++i) {
+			if(probes.get(i * 2) == timestamp) {
+				return probes.get((i * 2) + 1);
 			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Record a round trip time measured by a ping, and update the estimated
+	 * capacity accordingly.
+	 * 
+	 * @param sample
+	 *            --- the round trip time (in ns).
+	 * @param bytes
+	 *            --- the size of the frame sent before the ping.
+	 */
+	private void measured(long sample, long bytes) {
+		minRtt = Math.min(minRtt, sample);
+		long arrival = sample - minRtt; // time taken by the frame, roughly
+		if(bytes > 0) {
+			long rate = (bytes * 1000000000L) / Math.max(MIN_DELIVERY_TIME, arrival);
+			capacity = Math.max(rate, capacity - (capacity / CAPACITY_DECAY));
+			// The time taken by the frame itself isn't queueing
+			sample -= Math.min(arrival, (bytes * 1000000000L) / capacity);
+		}
+		lastRtt = sample;
+		rtt = rtt == 0 ? sample : (7 * rtt + sample) / 8;
+		pongs++;
+	}
+	
+	/**
+	 * Check whether a round trip time shows that frames are queueing up on
+	 * the way to the slave.
+	 * 
+	 * @param sample
+	 *            --- the round trip time (in ns).
+	 * @return
+	 */
+	private boolean isQueueing(long sample) {
+		long base = minRtt;
+		return sample - base > Math.max(RTT_SLACK, base);
+	}
+	
+	/**
+	 * Check whether this master is still attached to its session (which a
+	 * spectator always is).
+	 * 
+	 * @return
+	 */
+	private boolean isAttached() {
+		return session == null || sessions.isAttached(this, session);
+	}
+	
+	private void close() {
+		try {
 			socket.close(); // release socket ... v.important!
 		} catch(IOException e) {
-			System.err.println("PLAYER " + uid + " DISCONNECTED");
-			board.disconnectPlayer(uid);
+		}
+		LockSupport.unpark(sender);
+	}
+	
+	/**
+	 * The sender sends the frames from the mailbox to the slave, until the
+	 * connection is lost or another connection resumes the session.
+	 */
+	private final class Sender extends Thread {
+		public Sender() {
+			setDaemon(true);
+		}
+		
+		public void run() {
+			long period = broadcaster.period() * 1000000L;
+			int maxInterval = broadcaster.maxInterval();
+			long lastDropped = 0;
+			long lastPongs = 0;
+			long pingPeriod = Protocol.PING_PERIOD * 1000000L;
+			long nextPing = System.nanoTime();
+			int nprobes = 0;
+			int onTime = 0;
+			try {
+				socket.setTcpNoDelay(true); // don't hold frames back
+				DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(socket.getOutputStream()));
+				while(!socket.isClosed() && isAttached()) {
+					byte[] frame = null;
+					if(framesSent - framesAcked < WINDOW) {
+						frame = mailbox.getAndSet(null);
+					}
+					if(frame == null) {
+						// nothing to send, or the slave is behind.
+						LockSupport.parkNanos(period * interval);
+						continue;
+					}
+					SendEvent event = new SendEvent();
+					event.begin();
+					long start = System.nanoTime();
+					output.writeInt(frame.length);
+					output.write(frame);
+					// Follow the frame with a ping, if one is due. When windows
+					// are being sent, the ping waits for a frame covering the
+					// whole board (unless it's overdue), since this takes
+					// longest to arrive and so best shows the capacity.
+					boolean whole = (frame[0] & SpatialIndex.WINDOW) == 0;
+					if(start >= nextPing && (whole || start >= nextPing + pingPeriod)) {
+						int p = (nprobes++ % PROBES) * 2;
+						probes.set(p + 1, frame.length + 4);
+						probes.set(p, start);
+						output.writeInt(Protocol.PING);
+						output.writeLong(start);
+						nextPing = start + pingPeriod;
+					}
+					output.flush();
+					long written = System.nanoTime();
+					event.end();
+					if(event.shouldCommit()) {
+						event.uid = uid();
+						event.bytes = frame.length;
+						event.interval = interval;
+						event.commit();
+					}
+					metrics.frameSize.record(frame.length);
+					bytesSent += frame.length + 4;
+					framesSent++;
+					blockedTime += written - start;
+					// Now, adapt the interval to the rate the slave is
+					// consuming frames at. Each new round trip time is only
+					// considered once.
+					long dropped = framesDropped;
+					boolean late = dropped != lastDropped || written - start > period * interval;
+					boolean clear = false;
+					if(pongs != lastPongs) {
+						lastPongs = pongs;
+						clear = !isQueueing(lastRtt);
+						late |= !clear;
+					}
+					if(late) {
+						interval = Math.min(maxInterval, interval * 2);
+						onTime = 0;
+					} else if(clear && interval > 1) {
+						interval = interval / 2;
+						onTime = 0;
+					} else if(++onTime >= RECOVERY_FRAMES && interval > 1 && !isQueueing(rtt)) {
+						interval = interval - 1;
+						onTime = 0;
+					}
+					lastDropped = dropped;
+				}
+			} catch(IOException e) {
+				// the reader will notice the connection is lost
+			}
+			close();
 		}
 	}
 }
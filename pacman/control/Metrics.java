@@ -0,0 +1,270 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import pacman.game.Board;
+import pacman.game.Histogram;
+
+/**
+ * The metrics of a server describe how healthy it is. They are gathered as
+ * the server runs, using histograms which are cheap enough to record on the
+ * hot path, and can be served over HTTP in plain text (in the format used by
+ * Prometheus) to a scraper running on the same machine. The following are
+ * reported:
+ * <ul>
+ * <li>The time taken by each clock tick (in ns).</li>
+ * <li>The time by which a clock tick overran the start of the next (in ns).
+ * Only ticks which overran are recorded.</li>
+ * <li>The time between a direction arriving and the board applying it, at the
+ * start of the next clock tick (in ns).</li>
+ * <li>The size of each frame sent (in bytes).</li>
+ * <li>For each connection, the bytes and frames sent so far, the bytes per
+ * second since the last scrape, the time spent blocked writing to the socket,
+ * the frames sent but not yet acknowledged, the frames dropped because the slave couldn't keep up, the current
+ * number of broadcast periods between frames, the round trip time (in us) and
+ * estimated capacity (in bytes per second) of the connection to the slave, and the number of
+ * frames sent for each covering the whole board.</li>
+ * <li>The number of players and spectators connected to the board. Spectators
+ * aren't reported individually, since there may be hundreds of them.</li>
+ * </ul>
+ * A server hosting many rooms has metrics for each room, which are labelled
+ * with the room's id and served together.
+ * 
+ * @author djp
+ * 
+ */
+public final class Metrics {
+	public final Histogram tickDuration = new Histogram();
+	public final Histogram tickOverrun = new Histogram();
+	public final Histogram inputLatency;
+	public final Histogram frameSize = new Histogram();
+	
+	private final String label;
+	private final CopyOnWriteArrayList<Master> connections = new CopyOnWriteArrayList<Master>();
+	
+	/**
+	 * The bytes sent by each connection, and the time, at the last scrape.
+	 * This is only used by the thread serving the metrics, whilst holding the
+	 * class's lock.
+	 */
+	private final HashMap<Master,long[]> lastScrape = new HashMap<Master,long[]>();
+	
+	/**
+	 * Construct the metrics for a server hosting a given board.
+	 * 
+	 * @param name
+	 *            --- the name of the board.
+	 * @param board
+	 */
+	public Metrics(String name, Board board) {
+		this.label = "board=\"" + name + "\"";
+		this.inputLatency = board.inputLatency();
+	}
+	
+	/**
+	 * Construct the metrics for one room of a server hosting many.
+	 * 
+	 * @param name
+	 *            --- the name of the room's board.
+	 * @param room
+	 *            --- the room's id.
+	 * @param board
+	 */
+	public Metrics(String name, int room, Board board) {
+		this.label = "board=\"" + name + "\",room=\"" + room + "\"";
+		this.inputLatency = board.inputLatency();
+	}
+	
+	public void connected(Master master) {
+		connections.add(master);
+	}
+	
+	public void disconnected(Master master) {
+		connections.remove(master);
+	}
+	
+	/**
+	 * Start serving the metrics over HTTP on a given port. Only connections
+	 * from the local machine are accepted.
+	 * 
+	 * @param port
+	 * @throws IOException
+	 */
+	public void serve(int port) throws IOException {
+		serve(port, Collections.singletonList(this));
+	}
+	
+	/**
+	 * Start serving the metrics of several boards (e.g. the rooms of a server)
+	 * together over HTTP on a given port. The boards served are those in the
+	 * collection when each scrape is made.
+	 * 
+	 * @param port
+	 * @param metrics
+	 * @throws IOException
+	 */
+	public static void serve(int port, final Collection<Metrics> metrics) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = scrape(metrics).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start(); // uses a single (non-daemon) thread
+	}
+	
+	/**
+	 * Write out the current metrics in plain text.
+	 * 
+	 * @return
+	 */
+	public String scrape() {
+		return scrape(Collections.singletonList(this));
+	}
+	
+	/**
+	 * Write out the current metrics of several boards in plain text. Each
+	 * metric is written for every board before the next metric, since a
+	 * scraper expects all of a metric's values together.
+	 * 
+	 * @param metrics
+	 * @return
+	 */
+	public static synchronized String scrape(Collection<Metrics> metrics) {
+		Metrics[] all = metrics.toArray(new Metrics[0]);
+		StringBuilder out = new StringBuilder();
+		String[] histograms = {
+				"pacman_tick_duration_nanoseconds",
+				"pacman_tick_overrun_nanoseconds",
+				"pacman_input_latency_nanoseconds",
+				"pacman_frame_size_bytes"
+		};
+		for(int j=0;j!=histograms.length;++j) {
+			out.append("# TYPE " + histograms[j] + " summary\n");
+			for(Metrics m : all) {
+				Histogram[] hs = { m.tickDuration, m.tickOverrun, m.inputLatency, m.frameSize };
+				histogram(out, histograms[j], m.label, hs[j]);
+			}
+		}
+		int[] spectators = new int[all.length];
+		for(int i=0;i!=all.length;++i) {
+			for(Master c : all[i].connections) {
+				if(c.isSpectator()) {
+					spectators[i]++;
+				}
+			}
+		}
+		out.append("# TYPE pacman_clients gauge\n");
+		for(int i=0;i!=all.length;++i) {
+			int players = all[i].connections.size() - spectators[i];
+			out.append("pacman_clients{" + all[i].label + "} " + players + "\n");
+		}
+		out.append("# TYPE pacman_spectators gauge\n");
+		for(int i=0;i!=all.length;++i) {
+			out.append("pacman_spectators{" + all[i].label + "} " + spectators[i] + "\n");
+		}
+		// Take a snapshot of each connection, so that each metric describes
+		// the connections at the same point.
+		ArrayList<String> labels = new ArrayList<String>();
+		ArrayList<long[]> values = new ArrayList<long[]>();
+		long now = System.nanoTime();
+		for(Metrics m : all) {
+			m.connections(now, labels, values);
+		}
+		String[][] names = {
+				{"pacman_connection_bytes_sent", "counter"},
+				{"pacman_connection_frames_sent", "counter"},
+				{"pacman_connection_bytes_per_second", "gauge"},
+				{"pacman_connection_blocked_nanoseconds", "counter"},
+				{"pacman_connection_unacked_frames", "gauge"},
+				{"pacman_connection_frames_dropped", "counter"},
+				{"pacman_connection_send_interval", "gauge"},
+				{"pacman_connection_rtt_microseconds", "gauge"},
+				{"pacman_connection_capacity_bytes_per_second", "gauge"},
+				{"pacman_connection_full_frame_period", "gauge"}
+		};
+		for(int j=0;j!=names.length;++j) {
+			out.append("# TYPE " + names[j][0] + " " + names[j][1] + "\n");
+			for(int i=0;i!=labels.size();++i) {
+				out.append(names[j][0] + labels.get(i) + " " + values.get(i)[j] + "\n");
+			}
+		}
+		return out.toString();
+	}
+	
+	/**
+	 * Take a snapshot of each player's connection to this board, adding its labels and
+	 * values to the given lists.
+	 * 
+	 * @param now
+	 * @param labels
+	 * @param values
+	 */
+	private void connections(long now, ArrayList<String> labels, ArrayList<long[]> values) {
+		HashMap<Master,long[]> scrape = new HashMap<Master,long[]>();
+		for(Master m : connections) {
+			if(m.isSpectator()) {
+				continue;
+			}
+			labels.add("{" + label + ",uid=\"" + m.uid() + "\"}");
+			long bytes = m.bytesSent();
+			long[] last = lastScrape.get(m);
+			long rate = 0;
+			if(last != null && now > last[1]) {
+				rate = ((bytes - last[0]) * 1000000000L) / (now - last[1]);
+			}
+			scrape.put(m, new long[]{bytes, now});
+			values.add(new long[]{bytes, m.framesSent(), rate, m.blockedTime(),
+					m.unackedFrames(), m.framesDropped(), m.interval(), m.rtt() / 1000,
+					m.capacity(), m.fullFramePeriod()});
+		}
+		lastScrape.clear();
+		lastScrape.putAll(scrape);
+	}
+	
+	private static void histogram(StringBuilder out, String name, String label, Histogram h) {
+		double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+		for(double q : quantiles) {
+			out.append(name + "{" + label + ",quantile=\"" + q + "\"} " + h.quantile(q) + "\n");
+		}
+		out.append(name + "_max{" + label + "} " + h.max() + "\n");
+		out.append(name + "_sum{" + label + "} " + h.sum() + "\n");
+		out.append(name + "_count{" + label + "} " + h.count() + "\n");
+	}
+}
@@ -20,7 +20,6 @@ package pacman.control;
 import java.awt.event.*;
 
 import pacman.game.*;
-import pacman.ui.Board;
 
 /**
  * The player class simple relays keyboard events to a character proxy in the
@@ -44,13 +43,13 @@ public class Player implements KeyListener {
 	public void keyPressed(KeyEvent e) {		
 		int code = e.getKeyCode();
 		if(code == KeyEvent.VK_RIGHT || code == KeyEvent.VK_KP_RIGHT) {			
-			game.player(uid).moveRight();
+			game.input(uid, MovingCharacter.RIGHT);
 		} else if(code == KeyEvent.VK_LEFT || code == KeyEvent.VK_KP_LEFT) {
-			game.player(uid).moveLeft();
+			game.input(uid, MovingCharacter.LEFT);
 		} else if(code == KeyEvent.VK_UP) {
-			game.player(uid).moveUp();
+			game.input(uid, MovingCharacter.UP);
 		} else if(code == KeyEvent.VK_DOWN) {
-			game.player(uid).moveDown();
+			game.input(uid, MovingCharacter.DOWN);
 		}
 	}
 	
@@ -0,0 +1,199 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import java.io.*;
+import java.util.Arrays;
+
+import pacman.game.Board;
+import pacman.game.BoardLoader;
+
+/**
+ * The protocol describes the handshake between a slave and its master. The
+ * slave begins by sending a hello:
+ * 
+ * <pre>
+ * int uid     --- uid previously issued, 0 for a new player, or SPECTATOR
+ * long token  --- resume token previously issued, or 0
+ * byte[32]    --- hash of the board cached by the slave, or all zeros
+ * </pre>
+ * 
+ * The master replies with a welcome:
+ * 
+ * <pre>
+ * int uid     --- uid of the player, SPECTATOR, or 0 if the connection was refused
+ * long token  --- resume token to present when reconnecting
+ * int width
+ * int height
+ * byte[32]    --- hash of the board, or all zeros if it has none
+ * byte cached --- 1 if the slave's cached walls match the board
+ * byte[]      --- the walls, only if they weren't cached
+ * </pre>
+ * 
+ * A spectator watches the game without a pacman of its own. It's sent the
+ * same frames as the players, and its direction events are ignored.
+ * 
+ * After this, the master sends the board state at regular intervals, and the
+ * slave sends direction events as they happen. Every ACK_PERIOD frames, the
+ * slave also acknowledges the frames it has received, by sending ACK followed
+ * by the (long) number of frames received so far. The master stops sending
+ * frames if too many are unacknowledged.
+ * 
+ * About every PING_PERIOD, the master also sends PING straight after a frame,
+ * in place of the length of the next one, followed by a (long) timestamp.
+ * The slave immediately replies with PONG, in place of a direction, followed
+ * by the same timestamp. This lets the master measure the round trip time to
+ * the slave, including the time taken by the frame before the ping to arrive
+ * and any time spent queued behind the frames sent before it.
+ * 
+ * @author djp
+ * 
+ */
+public final class Protocol {
+	public static final int HASH_LENGTH = BoardLoader.HASH_LENGTH;
+	
+	/**
+	 * Sent by the slave, in place of a direction, to acknowledge frames.
+	 */
+	public static final int ACK = -1;
+	public static final int ACK_PERIOD = 4;
+	
+	/**
+	 * Sent by the master, in place of a frame's length, to measure the round
+	 * trip time.
+	 */
+	public static final int PING = -2;
+	public static final int PING_PERIOD = 250; // ms
+	
+	/**
+	 * Sent by the slave, in place of a direction, in reply to a ping.
+	 */
+	public static final int PONG = -3;
+	
+	/**
+	 * Sent by the slave, in place of a uid, to watch the game without
+	 * playing.
+	 */
+	public static final int SPECTATOR = -1;
+	
+	private static final byte[] NO_HASH = new byte[HASH_LENGTH];
+
+	public static void writeHello(DataOutputStream output, int uid,
+			long token, byte[] hash) throws IOException {
+		output.writeInt(uid);
+		output.writeLong(token);
+		output.write(hash != null ? hash : NO_HASH);
+		output.flush();
+	}
+	
+	/**
+	 * Write the welcome for a given player. The walls are only sent if the
+	 * hash the slave presented doesn't match that of the board.
+	 * 
+	 * @param output
+	 * @param uid
+	 * @param token
+	 * @param board
+	 * @param hash
+	 *            --- hash presented by the slave.
+	 * @return true if the walls were sent.
+	 * @throws IOException
+	 */
+	public static boolean writeWelcome(DataOutputStream output, int uid,
+			long token, Board board, byte[] hash) throws IOException {
+		byte[] boardHash = board.hash();
+		boolean cached = boardHash != null && Arrays.equals(boardHash, hash);
+		output.writeInt(uid);
+		output.writeLong(token);
+		output.writeInt(board.width());
+		output.writeInt(board.height());
+		output.write(boardHash != null ? boardHash : NO_HASH);
+		output.writeBoolean(cached);
+		if(!cached) {
+			output.write(board.wallsToByteArray());
+		}
+		output.flush();
+		return !cached;
+	}
+	
+	/**
+	 * Write the welcome given to a refused connection.
+	 * 
+	 * @param output
+	 * @throws IOException
+	 */
+	public static void writeRefusal(DataOutputStream output) throws IOException {
+		output.writeInt(0);
+		output.flush();
+	}
+	
+	/**
+	 * Acknowledge the frames received by a slave, if it's time to.
+	 * 
+	 * @param output
+	 * @param received
+	 *            --- number of frames received so far.
+	 * @throws IOException
+	 */
+	public static void acknowledge(DataOutputStream output, long received)
+			throws IOException {
+		if(received % ACK_PERIOD == 0) {
+			synchronized(output) {
+				output.writeInt(ACK);
+				output.writeLong(received);
+				output.flush();
+			}
+		}
+	}
+	
+	/**
+	 * Reply to a ping, whose timestamp has been read.
+	 * 
+	 * @param output
+	 * @param timestamp
+	 * @throws IOException
+	 */
+	public static void pong(DataOutputStream output, long timestamp)
+			throws IOException {
+		synchronized(output) {
+			output.writeInt(PONG);
+			output.writeLong(timestamp);
+			output.flush();
+		}
+	}
+	
+	public static byte[] readHash(DataInputStream input) throws IOException {
+		byte[] hash = new byte[HASH_LENGTH];
+		input.readFully(hash);
+		return Arrays.equals(hash, NO_HASH) ? null : hash;
+	}
+	
+	/**
+	 * Determine the number of bytes used to send the walls of a board with
+	 * the given dimensions.
+	 * 
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public static int wallsLength(int width, int height) {
+		int bitwidth = width % 8 == 0 ? width : width + 8;
+		return (bitwidth / 8) * height;
+	}
+}
@@ -0,0 +1,293 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package pacman.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.Deflater;
+
+import pacman.game.Board;
+import pacman.game.Command;
+import pacman.game.Journal;
+
+/**
+ * The recorder writes a journal of a game to a file, from which the game can
+ * later be replayed. The journal begins with a header giving the board's
+ * dimensions and walls, which is followed by a sequence of records. Each
+ * record is either an input from a player, or a (compressed) keyframe.
+ * 
+ * Records are passed from the board to the recorder through a queue, and the
+ * recorder then writes them out on its own thread. Thus, recording adds almost
+ * nothing to the time taken by a clock tick. Records are buffered, and the
+ * buffer is written whenever it fills up, or when there are no more records
+ * waiting.
+ * 
+ * @author djp
+ * 
+ */
+public final class Recorder extends Thread implements Journal {
+	/**
+	 * Every journal begins with this magic number ("PMJ2").
+	 */
+	public static final int MAGIC = 0x504D4A32;
+	
+	/**
+	 * The following constants determine the possible record types.
+	 */
+	public static final int INPUT = 1;
+	public static final int KEYFRAME = 2;
+	private static final int CLOSE = 3; // never written
+	
+	public static final int DEFAULT_KEYFRAME_PERIOD = 250;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int EXIT_TIMEOUT = 2000; // ms
+	
+	private final Board board;
+	private final FileChannel channel;
+	private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private long lastTick; // tick of the last record written
+	
+	/**
+	 * Construct a recorder for a given board, which writes to a given file.
+	 * The header is written immediately, but recording only begins once the
+	 * recorder is started.
+	 * 
+	 * @param filename
+	 * @param board
+	 * @throws IOException
+	 */
+	public Recorder(String filename, Board board) throws IOException {
+		this.board = board;
+		this.channel = FileChannel.open(Paths.get(filename),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		byte[] walls = board.wallsToByteArray();
+		ByteBuffer header = ByteBuffer.allocate(16 + walls.length);
+		header.putInt(MAGIC);
+		header.putInt(board.width());
+		header.putInt(board.height());
+		header.putInt(walls.length);
+		header.put(walls);
+		header.flip();
+		write(header);
+		setDaemon(true);
+	}
+	
+	/**
+	 * Start recording a given board into a given file. Recording continues
+	 * until the recorder is closed, which happens automatically when the
+	 * program exits (though without waiting more than EXIT_TIMEOUT, so a
+	 * stuck board can't stop the program from exiting).
+	 * 
+	 * @param filename
+	 * @param board
+	 * @return
+	 * @throws IOException
+	 */
+	public static Recorder record(String filename, Board board) throws IOException {
+		final Recorder recorder = new Recorder(filename, board);
+		recorder.start();
+		board.addJournal(recorder, DEFAULT_KEYFRAME_PERIOD);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				recorder.close(EXIT_TIMEOUT);
+			}
+		});
+		return recorder;
+	}
+	
+	public void input(long tick, int uid, int direction) {
+		queue.offer(new Record(INPUT, tick, uid, direction, null));
+	}
+	
+	public void keyframe(long tick, byte[] keyframe) {
+		queue.offer(new Record(KEYFRAME, tick, 0, 0, keyframe));
+	}
+	
+	/**
+	 * Stop recording, and wait until every record received so far has been
+	 * written. A final keyframe is written, which marks where the recording
+	 * ends.
+	 */
+	public void close() {
+		close(0);
+	}
+	
+	/**
+	 * Stop recording, waiting no longer than a given time. If the board's
+	 * owner doesn't apply the final keyframe in time, the recording simply
+	 * ends at the last record written.
+	 * 
+	 * @param timeout
+	 *            --- longest time to wait (in ms), or 0 to wait forever.
+	 */
+	public void close(long timeout) {
+		long start = System.currentTimeMillis();
+		try {
+			board.call(new Command<Void>() {
+				public Void apply(Board board) throws IOException {
+					board.removeJournal(Recorder.this);
+					keyframe(board.tick(), board.keyframe());
+					return null;
+				}
+			}, timeout);
+		} catch(IOException e) {
+			// can't happen, since we're writing to a byte array
+		} catch(TimeoutException e) {
+			System.err.println("RECORDING CLOSED WITHOUT A FINAL KEYFRAME");
+		}
+		queue.offer(new Record(CLOSE, 0, 0, 0, null));
+		try {
+			if(timeout > 0) {
+				join(Math.max(1, timeout - (System.currentTimeMillis() - start)));
+			} else {
+				join();
+			}
+		} catch(InterruptedException e) {
+		}
+	}
+	
+	public void run() {
+		try {
+			while(1 == 1) {
+				Record r = queue.poll();
+				if(r == null) {
+					// nothing else waiting, so write what we have
+					flush();
+					r = queue.take();
+				}
+				if(r.type == CLOSE) {
+					break;
+				}
+				encode(r);
+			}
+			flush();
+			channel.force(false);
+			channel.close();
+		} catch(IOException e) {
+			System.err.println("I/O error writing recording: " + e.getMessage());
+		} catch(InterruptedException e) {
+		}
+	}
+	
+	private void encode(Record r) throws IOException {
+		if(r.type == INPUT) {
+			reserve(22);
+			buffer.put((byte) INPUT);
+			putVarLong(buffer, r.tick - lastTick);
+			putVarLong(buffer, r.uid);
+			buffer.put((byte) r.direction);
+		} else {
+			byte[] compressed = compress(r.keyframe);
+			reserve(24);
+			buffer.put((byte) KEYFRAME);
+			putVarLong(buffer, r.tick - lastTick);
+			putVarLong(buffer, r.keyframe.length);
+			putVarLong(buffer, compressed.length);
+			if(compressed.length > buffer.remaining()) {
+				flush();
+				write(ByteBuffer.wrap(compressed));
+			} else {
+				buffer.put(compressed);
+			}
+		}
+		lastTick = r.tick;
+	}
+	
+	private byte[] compress(byte[] bytes) {
+		byte[] out = new byte[bytes.length + (bytes.length / 100) + 64];
+		deflater.reset();
+		deflater.setInput(bytes);
+		deflater.finish();
+		int length = deflater.deflate(out);
+		return Arrays.copyOf(out, length);
+	}
+	
+	/**
+	 * Ensure there's room for a given number of bytes in the buffer.
+	 */
+	private void reserve(int nbytes) throws IOException {
+		if(buffer.remaining() < nbytes) {
+			flush();
+		}
+	}
+	
+	private void flush() throws IOException {
+		buffer.flip();
+		write(buffer);
+		buffer.clear();
+	}
+	
+	private void write(ByteBuffer bytes) throws IOException {
+		while(bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+	
+	/**
+	 * Write a non-negative number using as few bytes as possible. Each byte
+	 * holds seven bits of the number, with the top bit set on every byte
+	 * except the last.
+	 */
+	public static void putVarLong(ByteBuffer buffer, long value) {
+		while((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+	
+	/**
+	 * Read a number written by putVarLong().
+	 */
+	public static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		return value;
+	}
+	
+	private static final class Record {
+		public final int type;
+		public final long tick;
+		public final int uid;
+		public final int direction;
+		public final byte[] keyframe;
+		
+		public Record(int type, long tick, int uid, int direction, byte[] keyframe) {
+			this.type = type;
+			this.tick = tick;
+			this.uid = uid;
+			this.direction = direction;
+			this.keyframe = keyframe;
+		}
+	}
+}
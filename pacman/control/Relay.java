@@ -0,0 +1,234 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import pacman.game.Board;
+
+/**
+ * A relay passes on the game from a server to many spectators, so that the
+ * server's egress stays the same however many people are watching. The relay
+ * connects to its upstream server as a single spectator, and then passes
+ * each frame it receives, unchanged, to every spectator connected to it.
+ * Since a relay accepts spectators just as a server does, relays can be
+ * chained into a tree. Players can't connect to a relay.
+ * 
+ * Downstream connections are handled by masters, just as on a server, and so
+ * a slow spectator has frames dropped rather than holding up anyone else. If
+ * the connection to the upstream server is lost, then the relay tries to
+ * reconnect, and the spectators simply see the game pause.
+ * 
+ * @author djp
+ * 
+ */
+public final class Relay {
+	private static final int MAX_RECONNECTS = 10;
+	private static final int RECONNECT_DELAY = 1000; // ms
+	private static final int HANDSHAKE_TIMEOUT = 5000; // ms
+	private static final int ACCEPT_BACKLOG = 1024; // connections
+	
+	private final String host;
+	private final int port;
+	private final Broadcaster broadcaster;
+	private Board board;
+	private Sessions sessions;
+	private Metrics metrics;
+	
+	/**
+	 * Construct a relay for a given server.
+	 * 
+	 * @param host
+	 * @param port
+	 * @param broadcastClock
+	 *            --- expected time between frames from the server (in ms).
+	 * @param maxBroadcastClock
+	 *            --- longest period between frames sent to a slow spectator
+	 *            (in ms).
+	 */
+	public Relay(String host, int port, int broadcastClock, int maxBroadcastClock) {
+		this.host = host;
+		this.port = port;
+		this.broadcaster = new Broadcaster(broadcastClock);
+		broadcaster.setMaxPeriod(maxBroadcastClock);
+	}
+	
+	/**
+	 * Relay the game to spectators connecting on a given port. This only
+	 * returns if the connection to the upstream server is lost, and can't be
+	 * re-established.
+	 * 
+	 * @param listenPort
+	 * @param metricsPort
+	 *            --- port to serve metrics on, or 0.
+	 * @throws IOException
+	 */
+	public void run(int listenPort, int metricsPort) throws IOException {
+		Socket upstream = new Socket(host, port);
+		DataInputStream input = connect(upstream);
+		if(metricsPort != 0) {
+			metrics.serve(metricsPort);
+			System.out.println("PACMAN RELAY METRICS ON PORT " + metricsPort);
+		}
+		final ServerSocket ss = new ServerSocket(listenPort, ACCEPT_BACKLOG);
+		System.out.println("PACMAN RELAY LISTENING ON PORT " + listenPort);
+		Thread acceptor = new Thread() {
+			public void run() {
+				try {
+					while(1 == 1) {
+						accept(ss);
+					}
+				} catch(IOException e) {
+					System.err.println("I/O error: " + e.getMessage());
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		int attempts = 0;
+		while(1 == 1) {
+			try {
+				try {
+					relay(upstream, input);
+				} finally {
+					upstream.close();
+				}
+			} catch(IOException e) {
+				System.err.println("I/O error: " + e.getMessage());
+			}
+			// The connection has been lost, so try to reconnect.
+			while(1 == 1) {
+				if(++attempts > MAX_RECONNECTS) {
+					return; // give up
+				}
+				try {
+					Thread.sleep(RECONNECT_DELAY);
+					System.out.println("PACMAN RELAY RECONNECTING (ATTEMPT " + attempts + ")");
+					upstream = new Socket(host, port);
+					input = connect(upstream);
+					attempts = 0;
+					break;
+				} catch(IOException e) {
+					System.err.println("I/O error: " + e.getMessage());
+				} catch(InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Perform the handshake with the upstream server, as a spectator. The
+	 * first time, this creates the board which is given to spectators in
+	 * their welcome (which only has walls).
+	 * 
+	 * @param upstream
+	 * @return the stream to read frames from.
+	 * @throws IOException
+	 */
+	private DataInputStream connect(Socket upstream) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(
+				upstream.getInputStream()));
+		DataOutputStream output = new DataOutputStream(upstream.getOutputStream());
+		Protocol.writeHello(output, Protocol.SPECTATOR, 0, null);
+		if(input.readInt() != Protocol.SPECTATOR) {
+			throw new IOException("Connection refused");
+		}
+		input.readLong(); // token
+		int width = input.readInt();
+		int height = input.readInt();
+		byte[] hash = Protocol.readHash(input);
+		input.readBoolean(); // never cached
+		byte[] wallBytes = new byte[Protocol.wallsLength(width, height)];
+		input.readFully(wallBytes);
+		System.out.println("PACMAN RELAY CONNECTED TO " + host + ":" + port);
+		if(board == null) {
+			board = new Board(width, height);
+			board.wallsFromByteArray(wallBytes);
+			board.setHash(hash);
+			// No players can join a relay, so its sessions are closed.
+			sessions = new Sessions(board, Sessions.DEFAULT_GRACE_PERIOD);
+			sessions.close();
+			metrics = new Metrics("relay", board);
+		} else if(board.width() != width || board.height() != height) {
+			throw new IOException("Board changed on reconnection");
+		}
+		return input;
+	}
+	
+	/**
+	 * Pass on each frame received from the upstream server, until the
+	 * connection is lost.
+	 * 
+	 * @param upstream
+	 * @param input
+	 * @throws IOException
+	 */
+	private void relay(Socket upstream, DataInputStream input) throws IOException {
+		DataOutputStream output = new DataOutputStream(upstream.getOutputStream());
+		long frames = 0;
+		while(1 == 1) {
+			int amount = input.readInt();
+			if(amount == Protocol.PING) {
+				Protocol.pong(output, input.readLong());
+				continue;
+			}
+			byte[] frame = new byte[amount];
+			input.readFully(frame);
+			broadcaster.publish(frame);
+			Protocol.acknowledge(output, ++frames);
+		}
+	}
+	
+	/**
+	 * Accept a connection, and start a master for it if it's a spectator. The
+	 * handshake is done on its own thread, so that a spectator which is slow
+	 * to send its hello can't hold up any other; the connection is closed if
+	 * no hello arrives within HANDSHAKE_TIMEOUT.
+	 * 
+	 * @param ss
+	 * @throws IOException
+	 */
+	private void accept(ServerSocket ss) throws IOException {
+		final Socket s = ss.accept();
+		System.out.println("ACCEPTED CONNECTION FROM: " + s.getInetAddress());
+		final Master master = new Master(s, board, sessions, metrics, broadcaster);
+		new Thread() {
+			public void run() {
+				try {
+					s.setSoTimeout(HANDSHAKE_TIMEOUT);
+					if(master.handshake()) {
+						s.setSoTimeout(0);
+						master.start();
+					} else {
+						System.out.println("CONNECTION REFUSED FROM: " + s.getInetAddress());
+					}
+				} catch(IOException e) {
+					System.err.println("I/O error: " + e.getMessage());
+					try {
+						s.close();
+					} catch(IOException ex) {
+					}
+				}
+			}
+		}.start();
+	}
+}
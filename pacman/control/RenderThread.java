@@ -0,0 +1,82 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import java.util.concurrent.locks.LockSupport;
+
+import pacman.game.Board;
+import pacman.ui.BoardFrame;
+
+/**
+ * The Render Thread is responsible for refreshing the display. It runs
+ * independently of the ClockThread (or, in the case of a client, the Slave),
+ * and simply draws whatever is the latest published state of the board. Frames
+ * are paced at a fixed rate, which is capped so that we don't waste time
+ * drawing frames the monitor can never show. Furthermore, a frame is only drawn
+ * when the board has actually changed since the last one. Each frame drawn
+ * emits a RepaintEvent, which can be seen using the flight recorder.
+ * 
+ * @author djp
+ * 
+ */
+public class RenderThread extends Thread {
+	private final long period; // time between frames in ns
+	private final Board game;
+	private final BoardFrame display;
+	
+	public RenderThread(int fps, Board game, BoardFrame display) {
+		if(fps <= 0) {
+			throw new IllegalArgumentException("Frame rate must be positive");
+		}
+		this.period = 1000000000L / fps;
+		this.game = game;
+		this.display = display;
+		setDaemon(true);
+	}
+	
+	public void run() {
+		long lastVersion = -1;
+		long next = System.nanoTime();
+		while(1 == 1) {
+			// Loop forever
+			long version = game.version();
+			if(version != lastVersion) {
+				lastVersion = version;
+				RepaintEvent event = new RepaintEvent();
+				event.begin();
+				display.render();
+				event.end();
+				if(event.shouldCommit()) {
+					event.version = version;
+					event.commit();
+				}
+			}
+			next += period;
+			long remaining;
+			while((remaining = next - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(remaining);
+			}
+			if(System.nanoTime() - next > period) {
+				// we missed a frame; there's no point trying to draw it late, so
+				// just resynchronise with the current time.
+				next = System.nanoTime();
+			}
+		}
+	}
+}
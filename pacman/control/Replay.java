@@ -0,0 +1,414 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package pacman.control;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import pacman.game.Board;
+
+/**
+ * A replay plays back a game recorded by the Recorder. Since the game is
+ * deterministic, this is done by restoring a keyframe and then running the
+ * clock, whilst applying the recorded inputs at the ticks they were received.
+ * 
+ * Playback can be at any speed, and can jump to any tick. To seek, the replay
+ * restores the last keyframe before the target tick and fast forwards from
+ * there. The keyframes are found using an index, which gives the tick and
+ * position of each keyframe in the journal. The index is built the first
+ * time a journal is replayed, and then saved alongside it (as
+ * "name.idx"). Both the journal and its index are memory-mapped, so seeking
+ * takes the same time however long the recording is.
+ * 
+ * @author djp
+ * 
+ */
+public final class Replay extends Thread {
+	/**
+	 * Every index begins with this magic number ("PMI1").
+	 */
+	private static final int INDEX_MAGIC = 0x504D4931;
+	private static final int INDEX_HEADER = 4 + 8 + 8 + 8;
+	
+	private final Board board;
+	private final int delay; // delay between ticks in ms, at normal speed
+	private volatile double speed;
+	private volatile long seekTarget = -1;
+	private volatile boolean paused;
+	
+	/**
+	 * The journal being replayed, positioned at the next record, and the tick
+	 * of the previous record (from which the next is given relative to).
+	 */
+	private final ByteBuffer journal;
+	private final int journalEnd; // end of the last complete record
+	private long recordTick;
+	private boolean restored; // has any keyframe been restored yet?
+	
+	/**
+	 * The index holds (tick, offset) pairs for each keyframe in order.
+	 */
+	private final LongBuffer index;
+	private final long endTick;
+	
+	private final Inflater inflater = new Inflater();
+	
+	/**
+	 * Statistics on the time taken by each clock tick.
+	 */
+	private long nticks;
+	private long totalTime;
+	private long maxTime;
+	private long maxTick;
+	
+	/**
+	 * Open a given journal for replay.
+	 * 
+	 * @param filename
+	 * @param delay
+	 *            --- the clock period (in ms) at normal speed.
+	 * @throws IOException
+	 */
+	public Replay(String filename, int delay) throws IOException {
+		this.delay = delay;
+		this.speed = 1.0;
+		Path path = Paths.get(filename);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if(journal.getInt() != Recorder.MAGIC) {
+				throw new IOException("Input file \"" + filename + "\" is not a recording.");
+			}
+			int width = journal.getInt();
+			int height = journal.getInt();
+			byte[] walls = new byte[journal.getInt()];
+			journal.get(walls);
+			board = new Board(width, height);
+			board.wallsFromByteArray(walls);
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Input file \"" + filename + "\" is corrupt.");
+		}
+		
+		ByteBuffer idx = index(path, journal.duplicate());
+		journalEnd = (int) idx.getLong(4);
+		endTick = idx.getLong(12);
+		idx.position(INDEX_HEADER);
+		index = idx.slice().asLongBuffer();
+		if(index.limit() == 0) {
+			throw new IOException("Input file \"" + filename + "\" has no keyframes.");
+		}
+		seek(0);
+		setDaemon(true);
+	}
+	
+	/**
+	 * Get the board being replayed onto.
+	 * 
+	 * @return
+	 */
+	public Board board() {
+		return board;
+	}
+	
+	/**
+	 * Get the last tick of the recording.
+	 * 
+	 * @return
+	 */
+	public long endTick() {
+		return endTick;
+	}
+	
+	/**
+	 * Set the playback speed, where 1 is normal speed. A speed of 0 plays back
+	 * as fast as possible.
+	 * 
+	 * @param speed
+	 */
+	public void setSpeed(double speed) {
+		this.speed = speed;
+	}
+	
+	public double speed() {
+		return speed;
+	}
+	
+	/**
+	 * Pause or resume playback.
+	 * 
+	 * @param paused
+	 */
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+		LockSupport.unpark(this);
+	}
+	
+	public boolean isPaused() {
+		return paused;
+	}
+	
+	/**
+	 * Get the number of ticks in one second of the recorded game.
+	 * 
+	 * @return
+	 */
+	public int ticksPerSecond() {
+		return 1000 / delay;
+	}
+	
+	/**
+	 * Ask the playback thread to jump to a given tick.
+	 * 
+	 * @param tick
+	 */
+	public void jump(long tick) {
+		seekTarget = Math.max(0, tick);
+		LockSupport.unpark(this);
+	}
+	
+	public void run() {
+		long next = System.nanoTime();
+		try {
+			while(1 == 1) {
+				if((paused || board.tick() >= endTick) && seekTarget < 0) {
+					// wait until asked to resume or jump
+					LockSupport.park();
+					next = System.nanoTime();
+					continue;
+				}
+				long target = seekTarget;
+				if(target >= 0) {
+					seekTarget = -1;
+					seek(target);
+					next = System.nanoTime();
+					continue;
+				}
+				double s = speed;
+				if(s > 0) {
+					next += (long) ((delay * 1000000L) / s);
+					long remaining;
+					while((remaining = next - System.nanoTime()) > 0 && seekTarget < 0) {
+						LockSupport.parkNanos(remaining);
+					}
+					if(System.nanoTime() - next > delay * 1000000L) {
+						next = System.nanoTime(); // fallen behind
+					}
+				}
+				advance(board.tick() + 1);
+			}
+		} catch(IOException e) {
+			System.err.println("I/O error replaying: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Restore the board to its state at a given tick. If the board is already
+	 * before that tick, and no keyframe lies in between, then it's simply fast
+	 * forwarded; otherwise, the nearest preceding keyframe is restored first.
+	 * 
+	 * @param tick
+	 * @throws IOException
+	 */
+	public void seek(long tick) throws IOException {
+		tick = Math.min(tick, endTick);
+		int i = nearestKeyframe(tick);
+		int offset = (int) index.get((i * 2) + 1);
+		if(!restored || tick < board.tick() || offset >= journal.position()) {
+			journal.position(offset);
+			journal.get(); // type
+			Recorder.getVarLong(journal); // tick, which the index gives
+			board.fromKeyframe(readKeyframe(journal));
+			recordTick = index.get(i * 2);
+			restored = true;
+		}
+		advance(tick);
+	}
+	
+	/**
+	 * Run the board forward to a given tick, applying any recorded inputs and
+	 * keyframes along the way.
+	 * 
+	 * @param tick
+	 * @throws IOException
+	 */
+	public void advance(long tick) throws IOException {
+		tick = Math.min(tick, endTick);
+		while(journal.position() < journalEnd) {
+			int start = journal.position();
+			int type = journal.get();
+			long t = recordTick + Recorder.getVarLong(journal);
+			if(t > tick) {
+				journal.position(start); // leave this for later
+				break;
+			}
+			runTo(t);
+			if(type == Recorder.INPUT) {
+				int uid = (int) Recorder.getVarLong(journal);
+				int dir = journal.get();
+				try {
+					board.input(uid, dir);
+				} catch(IllegalArgumentException e) {
+					// the player must have left at this point
+				}
+			} else {
+				board.fromKeyframe(readKeyframe(journal));
+			}
+			recordTick = t;
+		}
+		runTo(tick);
+	}
+	
+	/**
+	 * Print out a summary of the time taken by clock ticks since the last
+	 * summary.
+	 */
+	public void report() {
+		if(nticks > 0) {
+			System.out.println("TICK " + board.tick() + ": " + nticks
+					+ " ticks, mean " + (totalTime / nticks / 1000)
+					+ "us, max " + (maxTime / 1000) + "us (tick " + maxTick
+					+ ")");
+		}
+		nticks = 0;
+		totalTime = 0;
+		maxTime = 0;
+	}
+	
+	private void runTo(long tick) {
+		while(board.tick() < tick) {
+			long start = System.nanoTime();
+			board.clockTick();
+			long time = System.nanoTime() - start;
+			nticks++;
+			totalTime += time;
+			if(time > maxTime) {
+				maxTime = time;
+				maxTick = board.tick();
+			}
+		}
+	}
+	
+	/**
+	 * Find the last keyframe at or before a given tick. If there is none, then
+	 * the first keyframe is returned.
+	 */
+	private int nearestKeyframe(long tick) {
+		int lo = 0;
+		int hi = (index.limit() / 2) - 1;
+		while(lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if(index.get(mid * 2) <= tick) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+	
+	private byte[] readKeyframe(ByteBuffer in) throws IOException {
+		int length = (int) Recorder.getVarLong(in);
+		byte[] compressed = new byte[(int) Recorder.getVarLong(in)];
+		in.get(compressed);
+		byte[] keyframe = new byte[length];
+		inflater.reset();
+		inflater.setInput(compressed);
+		try {
+			inflater.inflate(keyframe);
+		} catch(DataFormatException e) {
+			throw new IOException("Corrupt keyframe");
+		}
+		return keyframe;
+	}
+	
+	/**
+	 * Open the index for a given journal, building it first if it doesn't
+	 * exist or is out of date.
+	 * 
+	 * @param journal
+	 *            --- positioned at the first record.
+	 */
+	private static ByteBuffer index(Path path, ByteBuffer journal) throws IOException {
+		Path idx = Paths.get(path.toString().replaceFirst("\\.[^.]*$", "") + ".idx");
+		try (FileChannel channel = FileChannel.open(idx, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			if(channel.size() >= INDEX_HEADER) {
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if(buffer.getInt(0) == INDEX_MAGIC
+						&& buffer.getLong(20) == journal.capacity()) {
+					return buffer; // up to date
+				}
+			}
+			
+			// Scan the journal for keyframes. The journal may end with an
+			// incomplete record (e.g. if the recorder was killed), and this
+			// is ignored.
+			ArrayList<long[]> keyframes = new ArrayList<long[]>();
+			long tick = 0;
+			long endTick = 0;
+			int end = journal.position();
+			try {
+				while(journal.hasRemaining()) {
+					int offset = journal.position();
+					int type = journal.get();
+					tick += Recorder.getVarLong(journal);
+					if(type == Recorder.INPUT) {
+						Recorder.getVarLong(journal); // uid
+						journal.position(journal.position() + 1);
+					} else {
+						Recorder.getVarLong(journal);
+						int length = (int) Recorder.getVarLong(journal);
+						journal.position(journal.position() + length);
+						keyframes.add(new long[] { tick, offset });
+					}
+					end = journal.position();
+					endTick = tick;
+				}
+			} catch(RuntimeException e) {
+				// incomplete record
+			}
+			
+			ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER + (keyframes.size() * 16));
+			buffer.putInt(INDEX_MAGIC);
+			buffer.putLong(end);
+			buffer.putLong(endTick);
+			buffer.putLong(journal.capacity());
+			for(long[] k : keyframes) {
+				buffer.putLong(k[0]);
+				buffer.putLong(k[1]);
+			}
+			buffer.flip();
+			channel.truncate(0);
+			while(buffer.hasRemaining()) {
+				channel.write(buffer, buffer.position());
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+}
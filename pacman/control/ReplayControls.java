@@ -0,0 +1,62 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package pacman.control;
+
+import java.awt.event.*;
+
+/**
+ * The replay controls relay keyboard events to a replay, so that the user
+ * can control playback: left and right jump back and forward ten seconds,
+ * up and down double and halve the speed, space pauses and home returns to
+ * the start.
+ * 
+ * @author djp
+ * 
+ */
+public class ReplayControls implements KeyListener {
+	private final Replay replay;
+	
+	public ReplayControls(Replay replay) {
+		this.replay = replay;
+	}
+	
+	public void keyPressed(KeyEvent e) {
+		int code = e.getKeyCode();
+		long tick = replay.board().tick();
+		int skip = 10 * replay.ticksPerSecond();
+		if(code == KeyEvent.VK_RIGHT || code == KeyEvent.VK_KP_RIGHT) {
+			replay.jump(tick + skip);
+		} else if(code == KeyEvent.VK_LEFT || code == KeyEvent.VK_KP_LEFT) {
+			replay.jump(tick - skip);
+		} else if(code == KeyEvent.VK_UP) {
+			replay.setSpeed(Math.min(1024, replay.speed() * 2));
+		} else if(code == KeyEvent.VK_DOWN) {
+			replay.setSpeed(Math.max(1.0 / 16, replay.speed() / 2));
+		} else if(code == KeyEvent.VK_SPACE) {
+			replay.setPaused(!replay.isPaused());
+		} else if(code == KeyEvent.VK_HOME) {
+			replay.jump(0);
+		}
+	}
+	
+	public void keyReleased(KeyEvent e) {
+	}
+	
+	public void keyTyped(KeyEvent e) {
+	}
+}
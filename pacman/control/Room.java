@@ -0,0 +1,254 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import pacman.game.Board;
+
+/**
+ * A room hosts one game on a server which hosts many. The game begins once a
+ * given number of players have joined the room; from then on, only players
+ * resuming their sessions (and spectators) are accepted into it. As with a server hosting a
+ * single game, when a game is over it's simply restarted with whatever
+ * players are remaining. Once every player has gone, the room is finished.
+ * 
+ * Rooms are ticked by a TickScheduler, rather than by their own clock thread,
+ * and so they move between the phases of a game as part of their ticks rather
+ * than by waiting for them.
+ * 
+ * @author djp
+ * 
+ */
+public final class Room {
+	private static final int PAUSE = 3000; // ms between phases of a game
+	
+	private final int id;
+	private final Board board;
+	private final Sessions sessions;
+	private final Metrics metrics;
+	private final Broadcaster broadcaster;
+	private final int nclients;
+	private final int pauseTicks;
+	
+	// The following are guarded by this room's lock
+	private int reserved; // places reserved for new players
+	private int joined; // new players who have completed their handshake
+	
+	private volatile boolean full; // every place has been reserved
+	private volatile boolean ready; // every place has been taken
+	private volatile boolean finished;
+	
+	// The following are only used by the scheduler's thread
+	private boolean owned;
+	private byte[] initial;
+	private int countdown;
+	
+	/**
+	 * Construct a room for a given board.
+	 * 
+	 * @param id
+	 * @param board
+	 * @param metrics
+	 * @param nclients
+	 *            --- number of players needed to begin the game.
+	 * @param gameClock
+	 *            --- period of the scheduler which will tick this room (in
+	 *            ms).
+	 * @param broadcastClock
+	 *            --- period between frames sent to each player (in ms).
+	 * @param maxBroadcastClock
+	 *            --- longest period between frames sent to a slow player (in
+	 *            ms).
+	 * @param minFullFrames
+	 *            --- fewest frames sent to a player for each covering the
+	 *            whole board, when they're sent windows.
+	 * @param maxFullFrames
+	 *            --- most frames sent to a player for each covering the whole
+	 *            board.
+	 */
+	public Room(int id, Board board, Metrics metrics, int nclients,
+			int gameClock, int broadcastClock, int maxBroadcastClock,
+			int minFullFrames, int maxFullFrames) {
+		this.id = id;
+		this.board = board;
+		this.metrics = metrics;
+		this.nclients = nclients;
+		this.pauseTicks = Math.max(1, PAUSE / gameClock);
+		this.sessions = new Sessions(board, Sessions.DEFAULT_GRACE_PERIOD);
+		this.broadcaster = new Broadcaster(broadcastClock, board);
+		broadcaster.setMaxPeriod(maxBroadcastClock);
+		broadcaster.setFullFramePeriods(minFullFrames, maxFullFrames);
+		broadcaster.start();
+	}
+	
+	public int id() {
+		return id;
+	}
+	
+	public Metrics metrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Check whether this room is still waiting for players to join.
+	 * 
+	 * @return
+	 */
+	public boolean isOpen() {
+		return !full && !finished;
+	}
+	
+	/**
+	 * Check whether every player has gone, and so this room is no longer
+	 * ticked.
+	 * 
+	 * @return
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Check whether a given uid and token identify a session of this room.
+	 * 
+	 * @param uid
+	 * @param token
+	 * @return
+	 */
+	public boolean hasSession(int uid, long token) {
+		return sessions.hasSession(uid, token);
+	}
+	
+	/**
+	 * Reserve a place in this room for a new player, whose connection is about
+	 * to be accepted into it. Once every place has been reserved, no more
+	 * players are routed to this room.
+	 * 
+	 * @return false if there are no places left.
+	 */
+	public synchronized boolean reserve() {
+		if(full || finished) {
+			return false;
+		}
+		if(++reserved == nclients) {
+			full = true;
+		}
+		return true;
+	}
+	
+	/**
+	 * Accept a connection into this room, whose hello has already been read,
+	 * and start a master for it if the rest of its handshake succeeds. A new
+	 * player must have reserved their place first; if their handshake fails,
+	 * then the place is given up again.
+	 * 
+	 * @param socket
+	 * @param uid
+	 * @param token
+	 * @param hash
+	 * @param player
+	 *            --- true if this is a new player, who has reserved a place.
+	 * @return true if the connection was accepted.
+	 * @throws IOException
+	 */
+	public boolean accept(Socket socket, int uid, long token, byte[] hash,
+			boolean player) throws IOException {
+		Master master = new Master(socket, board, sessions, metrics, broadcaster);
+		boolean accepted = false;
+		try {
+			accepted = master.handshake(uid, token, hash);
+		} finally {
+			if(player) {
+				joined(accepted);
+			}
+		}
+		if(accepted) {
+			master.start();
+		}
+		return accepted;
+	}
+	
+	private synchronized void joined(boolean accepted) {
+		if(!accepted) {
+			reserved--;
+			full = false;
+		} else if(++joined == nclients) {
+			// From now on, only players resuming their sessions are accepted.
+			sessions.close();
+			ready = true;
+			System.out.println("ROOM " + id + " FULL --- GAME BEGINS");
+		}
+	}
+	
+	/**
+	 * Tick this room's board, and move on to the next phase of its game when
+	 * it's time. This is called by the scheduler.
+	 * 
+	 * @return false if every player has gone, and so the room is finished.
+	 */
+	boolean tick() {
+		if(!owned) {
+			board.own();
+			owned = true;
+		}
+		board.clockTick();
+		try {
+			if(initial == null) {
+				if(ready) {
+					// save initial state of board, so we can reset it
+					initial = board.toByteArray();
+					board.setState(Board.READY);
+					countdown = pauseTicks;
+				}
+				return true;
+			}
+			switch(board.state()) {
+			case Board.READY:
+				if(--countdown == 0) {
+					board.setState(Board.PLAYING);
+				}
+				break;
+			case Board.GAMEOVER:
+			case Board.GAMEWON:
+				if(countdown == 0) {
+					countdown = pauseTicks;
+				} else if(--countdown == 0) {
+					// Reset board state
+					board.setState(Board.WAITING);
+					board.fromByteArray(initial);
+					if(!sessions.isActive()) {
+						System.out.println("ROOM " + id + " EMPTY --- GAME OVER");
+						finished = true;
+						broadcaster.halt();
+						return false;
+					}
+					board.setState(Board.READY);
+					countdown = pauseTicks;
+				}
+				break;
+			}
+		} catch(IOException e) {
+			// can't happen, since we're reading from a byte array
+			throw new RuntimeException(e);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,46 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import jdk.jfr.*;
+
+/**
+ * A flight recorder event emitted for each frame a master sends to its slave.
+ * Its duration is the time spent writing the frame to the socket.
+ * 
+ * @author djp
+ * 
+ */
+@Name("pacman.Send")
+@Label("Send")
+@Category({ "Pacman", "Network" })
+@Description("Frame sent by a master to its slave")
+@StackTrace(false)
+final class SendEvent extends Event {
+	@Label("Player")
+	int uid;
+	
+	@Label("Bytes")
+	@DataAmount
+	int bytes;
+	
+	@Label("Send Interval")
+	@Description("Number of broadcast periods between frames sent to this slave")
+	int interval;
+}
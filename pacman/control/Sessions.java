@@ -0,0 +1,233 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import pacman.game.Board;
+
+/**
+ * The sessions of a server keep track of which player owns which pacman. When
+ * a player first connects, a new pacman is registered for them and they are
+ * issued with a resume token. If their connection is lost, then their pacman
+ * is detached rather than removed: it stays on the board for a grace period,
+ * during which the player can reclaim it by reconnecting and presenting their
+ * uid and resume token. Only once the grace period expires is the pacman
+ * removed from the board.
+ * 
+ * Players whose pacman was restored from a checkpoint have no session yet
+ * (since tokens aren't checkpointed), and so are permitted to claim their
+ * pacman once using only its uid.
+ * 
+ * Note that the lock on the sessions is never held while calling the board.
+ * This is because a board call may have to wait for the thread which owns
+ * the board, and that thread checks the sessions at the end of every game.
+ * 
+ * @author djp
+ * 
+ */
+public final class Sessions {
+	public static final int DEFAULT_GRACE_PERIOD = 30000; // ms
+	
+	/**
+	 * A session records the token for a given uid, and the master connection
+	 * (if any) which is currently attached to it.
+	 */
+	public static final class Session {
+		private final int uid;
+		private final long token;
+		private Master master;
+		private TimerTask expiry;
+		
+		private Session(int uid, long token) {
+			this.uid = uid;
+			this.token = token;
+		}
+		
+		public int uid() {
+			return uid;
+		}
+		
+		public long token() {
+			return token;
+		}
+	}
+	
+	private final Board board;
+	private final int gracePeriod;
+	private final HashMap<Integer,Session> sessions = new HashMap<Integer,Session>();
+	private final SecureRandom random = new SecureRandom();
+	private final Timer timer = new Timer("sessions", true);
+	private boolean open = true;
+	
+	public Sessions(Board board, int gracePeriod) {
+		this.board = board;
+		this.gracePeriod = gracePeriod;
+	}
+	
+	/**
+	 * Attach a master connection to a session. If the given uid and token
+	 * identify an existing session, then the connection resumes it (taking
+	 * over from any connection which is still attached). Otherwise, a new
+	 * pacman is registered, unless the sessions have been closed to new
+	 * players.
+	 * 
+	 * @param master
+	 * @param uid
+	 *            --- uid previously issued to the client, or 0 if none.
+	 * @param token
+	 *            --- token previously issued to the client.
+	 * @return the session, or null if the connection was refused.
+	 */
+	public Session attach(Master master, int uid, long token) {
+		boolean claimable;
+		synchronized(this) {
+			Session session = sessions.get(uid);
+			if(session != null && session.token == token) {
+				if(session.expiry != null) {
+					session.expiry.cancel();
+					session.expiry = null;
+				}
+				System.out.println("PLAYER " + uid + " RESUMED");
+				session.master = master;
+				return session;
+			}
+			claimable = session == null && uid != 0;
+		}
+		if(claimable && board.isPlayer(uid)) {
+			// a player restored from a checkpoint
+			synchronized(this) {
+				if(!sessions.containsKey(uid)) {
+					Session session = new Session(uid, random.nextLong());
+					session.master = master;
+					sessions.put(uid, session);
+					System.out.println("PLAYER " + uid + " RECONNECTED");
+					return session;
+				}
+			}
+		}
+		synchronized(this) {
+			if(!open) {
+				return null;
+			}
+		}
+		Session session = new Session(board.registerPacman(), random.nextLong());
+		session.master = master;
+		synchronized(this) {
+			sessions.put(session.uid, session);
+		}
+		return session;
+	}
+	
+	/**
+	 * Detach a master connection from its session, since the connection has
+	 * been lost. The player's pacman is removed from the board if the session
+	 * is not resumed within the grace period. Nothing happens if another
+	 * connection has already resumed the session.
+	 * 
+	 * @param master
+	 * @param session
+	 */
+	public synchronized void detach(Master master, final Session session) {
+		if(session.master != master) {
+			return; // already resumed elsewhere
+		}
+		session.master = null;
+		session.expiry = new TimerTask() {
+			public void run() {
+				expire(session);
+			}
+		};
+		timer.schedule(session.expiry, gracePeriod);
+	}
+	
+	/**
+	 * Check whether a given uid and token identify an existing session.
+	 * 
+	 * @param uid
+	 * @param token
+	 * @return
+	 */
+	public synchronized boolean hasSession(int uid, long token) {
+		Session session = sessions.get(uid);
+		return session != null && session.token == token;
+	}
+	
+	/**
+	 * Check whether a given master connection is still attached to its
+	 * session.
+	 * 
+	 * @param master
+	 * @param session
+	 * @return
+	 */
+	public synchronized boolean isAttached(Master master, Session session) {
+		return session.master == master;
+	}
+	
+	private void expire(Session session) {
+		synchronized(this) {
+			if(session.master != null || sessions.get(session.uid) != session) {
+				return; // resumed in the meantime
+			}
+			System.out.println("PLAYER " + session.uid + " EXPIRED");
+			sessions.remove(session.uid);
+		}
+		board.disconnectPlayer(session.uid);
+	}
+	
+	/**
+	 * Put back the pacman of every player whose pacman is no longer on the
+	 * board. This is needed after the board is reset to a state saved before
+	 * they joined.
+	 */
+	public void rejoin() {
+		ArrayList<Integer> uids;
+		synchronized(this) {
+			uids = new ArrayList<Integer>(sessions.keySet());
+		}
+		for(int uid : uids) {
+			if(!board.isPlayer(uid)) {
+				board.registerPacman(uid);
+			}
+		}
+	}
+	
+	/**
+	 * Stop new players from joining. After this, only existing sessions can
+	 * be resumed.
+	 */
+	public synchronized void close() {
+		open = false;
+	}
+	
+	/**
+	 * Check whether any session remains, either because it has a connection
+	 * attached or because it is still within its grace period.
+	 * 
+	 * @return
+	 */
+	public synchronized boolean isActive() {
+		return !sessions.isEmpty();
+	}
+}
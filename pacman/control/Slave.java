@@ -22,7 +22,6 @@ import java.io.*;
 import java.net.*;
 
 import pacman.game.*;
-import pacman.ui.Board;
 import pacman.ui.BoardFrame;
 
 /**
@@ -31,11 +30,16 @@ import pacman.ui.BoardFrame;
  * notifies the master connection of key presses by the player.
  */
 public final class Slave extends Thread implements KeyListener {
-	private final Socket socket;
+	private static final int MAX_RECONNECTS = 10;
+	private static final int RECONNECT_DELAY = 1000; // ms
+	
+	private Socket socket;
+	private final int fps;
 	private Board game;
 	private DataOutputStream output;
 	private DataInputStream input;
 	private int uid;
+	private long token;
 	private int totalSent;
 
 	/**
@@ -43,56 +47,187 @@ public final class Slave extends Thread implements KeyListener {
 	 * local computation, other than to display the current state of the board;
 	 * instead, board logic is controlled entirely by the server, and the slave
 	 * display is only refreshed when data is received from the master
-	 * connection.
+	 * connection. If the connection is lost, the slave tries to reconnect to
+	 * the same server, presenting its uid and resume token so that it gets its
+	 * old pacman back.
+	 * 
+	 * A spectating slave watches the game without a pacman of its own, and
+	 * ignores key presses.
+	 * 
+	 * The walls of the last board received from each server are cached in the
+	 * user's ~/.pacman directory. When connecting, the slave presents the hash
+	 * of its cached board, and the master only sends the walls if they differ.
+	 * Each frame received emits a DecodeEvent, which can be seen using the
+	 * flight recorder.
 	 *
 	 * @param socket
-	 * @param dumbTerminal
+	 * @param fps --- maximum frame rate for the display
+	 * @param spectate --- whether to watch, rather than play
 	 */
-	public Slave(Socket socket) {
+	public Slave(Socket socket, int fps, boolean spectate) {
 		this.socket = socket;
+		this.fps = fps;
+		this.uid = spectate ? Protocol.SPECTATOR : 0;
 	}
 
 	@Override
 	public void run() {
-		try {
+		int attempts = 0;
+		while(1 == 1) {
 			try {
-				output = new DataOutputStream(socket.getOutputStream());
-				input = new DataInputStream(socket.getInputStream());
-				// First job, is to read the period so we can create the clock
-				uid = input.readInt();
-				int width = input.readInt();
-				int height = input.readInt();
-				int bitwidth = width % 8 == 0 ? width : width + 8;
-				int bitsize = (bitwidth / 8) * height;
-				byte[] wallBytes = new byte[bitsize];
-				input.read(wallBytes);
-				System.out.println("PACMAN CLIENT UID: " + uid);
-				System.out.println("PACMAN CLIENT BOARD DIMENSIONS: " + width + " x " + height);
-				game = new Board(width, height);
-				game.wallsFromByteArray(wallBytes);
-				BoardFrame display = new BoardFrame("Pacman (client@" + socket.getInetAddress() + ")", game, uid, this);
-				boolean exit = false;
-				long totalRec = 0;
-
-				while (1 == 1) {
-					// read event
-					int amount = input.readInt();
-					byte[] data = new byte[amount];
-					input.readFully(data);
-					game.fromByteArray(data);
-					display.repaint();
-					totalRec += amount;
-					// print out some useful information about the amount of data
-					// sent and received
-					System.out.print("\rREC: " + (totalRec / 1024) + "KB (" + (rate(amount) / 1024) + "KB/s) TX: "
-							+ totalSent + " Bytes");
+				try {
+					connect();
+				} finally {
+					socket.close(); // release socket ... v.important!
+				}
+			} catch(IOException e) {
+				System.err.println("I/O Error: " + e.getMessage());
+			}
+			// The connection has been lost, so try to reconnect.
+			while(1 == 1) {
+				if(++attempts > MAX_RECONNECTS) {
+					return; // give up
+				}
+				try {
+					Thread.sleep(RECONNECT_DELAY);
+					System.out.println("\nPACMAN CLIENT RECONNECTING (ATTEMPT " + attempts + ")");
+					socket = new Socket(socket.getInetAddress(), socket.getPort());
+					attempts = 0;
+					break;
+				} catch(IOException e) {
+					System.err.println("I/O Error: " + e.getMessage());
+				} catch(InterruptedException e) {
+					return;
 				}
+			}
+		}
+	}
+	
+	/**
+	 * Establish the connection with the master, and then receive board states
+	 * from it until the connection is lost.
+	 * 
+	 * @throws IOException
+	 */
+	private void connect() throws IOException {
+		output = new DataOutputStream(socket.getOutputStream());
+		input = new DataInputStream(socket.getInputStream());
+		// First, tell the master who we were (if anyone) and which board we
+		// have cached. Then, read our uid and the board.
+		File cache = cacheFile();
+		byte[] cached = readCache(cache);
+		byte[] cachedHash = null;
+		if(cached != null) {
+			cachedHash = new byte[Protocol.HASH_LENGTH];
+			System.arraycopy(cached, 0, cachedHash, 0, cachedHash.length);
+		}
+		Protocol.writeHello(output, uid, token, cachedHash);
+		int newUid = input.readInt();
+		if(newUid == 0) {
+			throw new IOException("Connection refused");
+		}
+		uid = newUid;
+		token = input.readLong();
+		int width = input.readInt();
+		int height = input.readInt();
+		byte[] hash = Protocol.readHash(input);
+		byte[] wallBytes = new byte[Protocol.wallsLength(width, height)];
+		if(input.readBoolean()) {
+			if(cached.length != cachedHash.length + wallBytes.length) {
+				cache.delete();
+				throw new IOException("Corrupt board cache");
+			}
+			System.arraycopy(cached, cachedHash.length, wallBytes, 0, wallBytes.length);
+			System.out.println("PACMAN CLIENT USING CACHED BOARD");
+		} else {
+			input.readFully(wallBytes);
+			if(hash != null) {
+				writeCache(cache, hash, wallBytes);
+			}
+		}
+		if(uid == Protocol.SPECTATOR) {
+			System.out.println("PACMAN CLIENT SPECTATING");
+		} else {
+			System.out.println("PACMAN CLIENT UID: " + uid);
+		}
+		System.out.println("PACMAN CLIENT BOARD DIMENSIONS: " + width + " x " + height);
+		if(game == null) {
+			game = new Board(width, height);
+			game.wallsFromByteArray(wallBytes);
+			BoardFrame display = new BoardFrame("Pacman (client@" + socket.getInetAddress() + ")", game, uid, this);
+			new RenderThread(fps, game, display).start();
+		} else if(game.width() != width || game.height() != height) {
+			throw new IOException("Board changed on reconnection");
+		} else {
+			game.wallsFromByteArray(wallBytes);
+		}
+		long totalRec = 0;
+		long frames = 0;
+
+		while (1 == 1) {
+			// read event
+			int amount = input.readInt();
+			if(amount == Protocol.PING) {
+				Protocol.pong(output, input.readLong());
+				continue;
+			}
+			byte[] data = new byte[amount];
+			input.readFully(data);
+			DecodeEvent event = new DecodeEvent();
+			event.begin();
+			game.fromByteArray(data);
+			event.end();
+			Protocol.acknowledge(output, ++frames);
+			if(event.shouldCommit()) {
+				event.bytes = amount;
+				event.commit();
+			}
+			totalRec += amount;
+			// print out some useful information about the amount of data
+			// sent and received
+			System.out.print("\rREC: " + (totalRec / 1024) + "KB (" + (rate(amount) / 1024) + "KB/s) TX: "
+					+ totalSent + " Bytes");
+		}
+	}
+
+	/**
+	 * Determine the file in which the board of this slave's server is cached.
+	 * 
+	 * @return
+	 */
+	private File cacheFile() {
+		String name = socket.getInetAddress().getHostAddress().replace(':', '_')
+				+ "-" + socket.getPort() + ".walls";
+		return new File(new File(System.getProperty("user.home"), ".pacman"), name);
+	}
+	
+	/**
+	 * Read a cached board, which consists of its hash followed by its walls.
+	 * 
+	 * @param file
+	 * @return the cached board, or null if there isn't one.
+	 */
+	private static byte[] readCache(File file) {
+		try {
+			byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+			return bytes.length > Protocol.HASH_LENGTH ? bytes : null;
+		} catch(IOException e) {
+			return null;
+		}
+	}
+	
+	private static void writeCache(File file, byte[] hash, byte[] wallBytes) {
+		try {
+			file.getParentFile().mkdirs();
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(hash);
+				out.write(wallBytes);
 			} finally {
-				socket.close(); // release socket ... v.important!
+				out.close();
 			}
 		} catch(IOException e) {
-			System.err.println("I/O Error: " + e.getMessage());
-			e.printStackTrace(System.err);
+			// caching is only an optimisation, so just ignore it.
 		}
 	}
 
@@ -124,22 +259,29 @@ public final class Slave extends Thread implements KeyListener {
 
 	@Override
 	public void keyPressed(KeyEvent e) {
+		if(uid == Protocol.SPECTATOR) {
+			return; // spectators can't play
+		}
 		try {
 			int code = e.getKeyCode();
-			if(code == KeyEvent.VK_RIGHT || code == KeyEvent.VK_KP_RIGHT) {
-				output.writeInt(3);
-				totalSent += 4;
-			} else if(code == KeyEvent.VK_LEFT || code == KeyEvent.VK_KP_LEFT) {
-				output.writeInt(4);
-				totalSent += 4;
-			} else if(code == KeyEvent.VK_UP) {
-				output.writeInt(1);
-				totalSent += 4;
-			} else if(code == KeyEvent.VK_DOWN) {
-				output.writeInt(2);
-				totalSent += 4;
+			// NOTE: the slave's thread also writes acknowledgements
+			DataOutputStream output = this.output;
+			synchronized(output) {
+				if(code == KeyEvent.VK_RIGHT || code == KeyEvent.VK_KP_RIGHT) {
+					output.writeInt(3);
+					totalSent += 4;
+				} else if(code == KeyEvent.VK_LEFT || code == KeyEvent.VK_KP_LEFT) {
+					output.writeInt(4);
+					totalSent += 4;
+				} else if(code == KeyEvent.VK_UP) {
+					output.writeInt(1);
+					totalSent += 4;
+				} else if(code == KeyEvent.VK_DOWN) {
+					output.writeInt(2);
+					totalSent += 4;
+				}
+				output.flush();
 			}
-			output.flush();
 		} catch(IOException ioe) {
 			// something went wrong trying to communicate the key press to the
 			// server.  So, we just ignore it.
@@ -0,0 +1,145 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.control;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The tick scheduler produces the clock pulses for every room hosted by a
+ * server, using a fixed pool of worker threads rather than a clock thread per
+ * room. Each room is assigned to the worker with the fewest rooms, and stays
+ * with it from then on, so that the worker owns the room's board (see
+ * Board.own()). The rooms of a worker are ticked at staggered points within
+ * the clock period, rather than all at once, so that each tick starts on time
+ * even when a worker has many rooms.
+ * 
+ * @author djp
+ * 
+ */
+public final class TickScheduler {
+	private final int period; // in ms
+	private final Worker[] workers;
+	
+	public TickScheduler(int period, int nworkers) {
+		this.period = period;
+		this.workers = new Worker[nworkers];
+		for(int i=0;i!=nworkers;++i) {
+			workers[i] = new Worker(i);
+			workers[i].start();
+		}
+	}
+	
+	/**
+	 * Get the time between ticks (in ms).
+	 * 
+	 * @return
+	 */
+	public int period() {
+		return period;
+	}
+	
+	/**
+	 * Start ticking a room. The room is ticked until its tick() method returns
+	 * false.
+	 * 
+	 * @param room
+	 */
+	public synchronized void schedule(Room room) {
+		Worker worker = workers[0];
+		for(Worker w : workers) {
+			if(w.slots.size() < worker.slots.size()) {
+				worker = w;
+			}
+		}
+		worker.add(room);
+	}
+	
+	/**
+	 * A slot records when a room is next due to be ticked.
+	 */
+	private static final class Slot {
+		private final Room room;
+		private long next;
+		
+		private Slot(Room room, long next) {
+			this.room = room;
+			this.next = next;
+		}
+	}
+	
+	private final class Worker extends Thread {
+		private final CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<Slot>();
+		private int added;
+		
+		public Worker(int id) {
+			super("tick-" + id);
+			setDaemon(true);
+		}
+		
+		public void add(Room room) {
+			// Offsetting each room by the golden ratio of the period spreads
+			// the rooms evenly over the period, however many there are.
+			long p = period * 1000000L;
+			long offset = (long) ((added++ * 0.6180339887 % 1.0) * p);
+			slots.add(new Slot(room, System.nanoTime() + offset));
+			LockSupport.unpark(this);
+		}
+		
+		public void run() {
+			long period = TickScheduler.this.period * 1000000L;
+			while(1 == 1) {
+				// Loop forever
+				Slot slot = null;
+				for(Slot s : slots) {
+					if(slot == null || s.next < slot.next) {
+						slot = s;
+					}
+				}
+				if(slot == null) {
+					LockSupport.park(); // nothing to do
+					continue;
+				}
+				long remaining = slot.next - System.nanoTime();
+				if(remaining > 0) {
+					// parking may return early, or a room may have been added
+					LockSupport.parkNanos(remaining);
+					continue;
+				}
+				Metrics metrics = slot.room.metrics();
+				long start = System.nanoTime();
+				boolean alive = slot.room.tick();
+				long end = System.nanoTime();
+				metrics.tickDuration.record(end - start);
+				if(end > slot.next + period) {
+					metrics.tickOverrun.record(end - (slot.next + period));
+				}
+				slot.next += period;
+				if(end - slot.next > period) {
+					// we've fallen more than a whole pulse behind, so just
+					// resynchronise.
+					slot.next = end;
+				}
+				if(!alive) {
+					slots.remove(slot);
+				}
+			}
+		}
+	}
+}
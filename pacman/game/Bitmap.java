@@ -0,0 +1,80 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package pacman.game;
+
+import java.util.List;
+
+/**
+ * A bitmap stores one bit for every tile on a board, and is used to record
+ * the locations of walls and pills. Tile (x,y) of a bitmap is addressed by its
+ * coordinates; however, bitmaps can also be converted to and from a flat array
+ * of words, where tile (x,y) is given by bit (x + y*width).
+ * 
+ * Note that set(), clear() and evict() must only be called from one thread at
+ * a time; however, get() can be called from any thread.
+ * 
+ * @author djp
+ * 
+ */
+public interface Bitmap {
+	public int width();
+	
+	public int height();
+	
+	/**
+	 * Check whether the bit for a given tile is set. Tiles outside the bitmap
+	 * are never set.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public boolean get(int x, int y);
+	
+	public void set(int x, int y);
+	
+	public void clear(int x, int y);
+	
+	/**
+	 * Count the number of bits set in this bitmap.
+	 * 
+	 * @return
+	 */
+	public long cardinality();
+	
+	/**
+	 * Release any parts of this bitmap which aren't within a given distance of
+	 * at least one of the given tiles, and which can be reloaded when next
+	 * needed.
+	 * 
+	 * @param tiles
+	 *            --- list of tile positions, each given as {x,y}
+	 * @param radius
+	 * @return the number of parts released
+	 */
+	public int evict(List<int[]> tiles, int radius);
+	
+	/**
+	 * Convert this bitmap into a flat array of words, where tile (x,y) is
+	 * given by bit (x + y*width). This is only possible for boards with fewer
+	 * than 2^31 tiles.
+	 * 
+	 * @return
+	 */
+	public long[] toWords();
+}
@@ -0,0 +1,1445 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify 
+// it under the terms of the GNU General Public License as published 
+// by the Free Software Foundation; either version 3 of the License, 
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but 
+// WITHOUT ANY WARRANTY; without even the implied warranty of 
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See 
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public 
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce. 
+
+package pacman.game;
+
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The board class represents the pacman game board. This class is used by the
+ * Character threads to move, and generally interact with each other.
+ * 
+ * @author djp
+ * 
+ */
+public class Board {
+	private final int width;
+	private final int height;	
+	
+	public static final int WAITING = 0;
+	public static final int READY = 1;
+	public static final int PLAYING = 2;
+	public static final int GAMEOVER = 3;
+	public static final int GAMEWON = 4;
+	
+	private volatile int state; // this is used to tell us what state we're in. 
+	private long nPillsRemaining; // this is used to count the number of remaining pills
+	private int nGhosts; // number of ghosts seen in the last full frame read
+
+	/**
+	 * The version is bumped whenever the visible state of the board changes.
+	 * This allows a render thread to determine whether there is anything new to
+	 * draw, without having to acquire the board's lock.
+	 */
+	private volatile long version;
+	
+	/**
+	 * The number of clock ticks so far. This is used to identify when inputs
+	 * were received, so that a game can be replayed.
+	 */
+	private volatile long tick;
+	
+	/**
+	 * The seed of the random number generator used by the ghosts. This belongs
+	 * to the board (rather than to the ghosts) so that it can be saved in a
+	 * keyframe, which makes the game deterministic.
+	 */
+	private long seed = (System.nanoTime() ^ MULTIPLIER) & MASK;
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long MASK = (1L << 48) - 1;
+	
+	/**
+	 * The journals record the inputs and keyframes needed to replay the game
+	 * (e.g. for a recording or a checkpoint). Each journal has its own period
+	 * between keyframes.
+	 */
+	private final ArrayList<Journal> journals = new ArrayList<Journal>();
+	private final ArrayList<Integer> keyframePeriods = new ArrayList<Integer>();
+	
+	/**
+	 * The inputs which have yet to be applied, and the time (in ns) between
+	 * each input arriving and being applied.
+	 */
+	private final InputQueue inputs = new InputQueue();
+	private final Histogram inputLatency = new Histogram();
+	
+	/**
+	 * The owner is the clock thread which ticks this board (if any). Once a
+	 * board is owned, only the owner changes it: other threads submit
+	 * commands, which the owner applies at the start of each clock tick, and
+	 * read the snapshot which the owner publishes at the end of each clock
+	 * tick. Thus, only the owner ever holds the board's lock. If the owner
+	 * dies, other threads go back to changing the board directly.
+	 */
+	private volatile Thread owner;
+	private final CommandQueue commands = new CommandQueue(1024);
+	private volatile byte[] snapshot;
+	
+	/**
+	 * If the interest radius is set, then the owner also publishes a spatial
+	 * index of the board at the end of each clock tick, from which each player
+	 * can be sent only the part of the board around them.
+	 */
+	private volatile int interestRadius;
+	private volatile SpatialIndex index;
+
+	/**
+	 * The following stores the locations in the grid of all walls. It is
+	 * effectively implemented as a 2D grid of bits, where each bit represents a
+	 * wall. Walls never change during a game, and so boards loaded from a
+	 * compiled file hold them in a read-only mapping of that file, which is
+	 * shared between every game (and process) using the same board.
+	 * Otherwise, the grid is divided into chunks, which allows large boards to
+	 * be held only partially in memory.
+	 */	
+	private Bitmap walls;
+	private volatile byte[] wallBytes; // encoded walls, once needed
+	
+	/**
+	 * The following stores the locations in the grid of all pills. It is
+	 * effectively implemented as a 2D grid of bits, where each bit represents a
+	 * pill. Boards loaded from a compiled file load these in chunks from the
+	 * file, and only copy those chunks in which a pill has been eaten.
+	 */	
+	private Bitmap pills;
+	
+	/**
+	 * Chunks which aren't near any character are evicted every so many ticks.
+	 */
+	private static final int EVICTION_PERIOD = 512;
+	private int ticksUntilEviction = EVICTION_PERIOD;
+	
+	/**
+	 * Masks are only stored for boards with up to this many tiles. For larger
+	 * boards, they're computed whenever they're needed instead.
+	 */
+	private static final long MAX_MASKED_TILES = 2L * Integer.MAX_VALUE;
+	
+	/**
+	 * The following store, for each tile, a mask of its neighbours (1 = above,
+	 * 2 = below, 4 = left, 8 = right), with two tiles packed into each byte.
+	 * The wall masks identify which neighbours are walls, and determine how a
+	 * wall is drawn. The exit masks identify which neighbours can be moved
+	 * into, taking into account that the board wraps around horizontally.
+	 * These are computed when first needed, unless they were loaded from a
+	 * compiled board.
+	 */
+	private volatile ByteBuffer wallMasks;
+	private volatile ByteBuffer exitMasks;
+	private final Object maskLock = new Object();
+	
+	/**
+	 * The content hash uniquely identifies the initial layout of the board.
+	 * This is null for boards which weren't loaded from a file.
+	 */
+	private byte[] hash;
+		
+	/**
+	 * The following is a list of one dimension integer arrays, which are
+	 * guaranteed to be of length 2. The first element gives the x-component of
+	 * the portal, the second component gives the y-component.
+	 */
+	private final ArrayList<int[]> pacmanPortals = new ArrayList<int[]>();	
+	private int nextPacPortal = 0; // identify the next portal to be used
+
+	/**
+	 * The following is a list of one dimension integer arrays, which are
+	 * guaranteed to be of length 2. The first element gives the x-component of
+	 * the portal, the second component gives the y-component.
+	 */
+	private final ArrayList<int[]> ghostPortals = new ArrayList<int[]>();	
+	private int nextGhostPortal = 0; // identify the next portal to be used
+
+	/**
+	 * The following is a list of the characters in the game. This includes
+	 * pacmen, ghosts and other misc things.
+	 */
+	private final ArrayList<Character> characters = new ArrayList<Character>();
+	
+	public Board(int width, int height) {		
+		this.width = width;
+		this.height = height;
+		this.walls = new ChunkedBitmap(width, height, null);
+		this.pills = new ChunkedBitmap(width, height, null);
+	}
+	
+	/**
+	 * Construct a board with a given layout of walls and pills. This is used
+	 * by the board loader, which fills in the bitmaps directly rather than
+	 * adding walls and pills one at a time.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param walls
+	 * @param pills
+	 * @param nPills
+	 *            --- the number of pills in the given bitmap, which is passed
+	 *            in to avoid loading every chunk in order to count them.
+	 */
+	Board(int width, int height, Bitmap walls, Bitmap pills, long nPills) {
+		this.width = width;
+		this.height = height;
+		this.walls = walls;
+		this.pills = pills;
+		this.nPillsRemaining = nPills;
+	}
+	
+	// The following are used by the board loader to compile boards.
+	
+	Bitmap walls() {
+		return walls;
+	}
+	
+	Bitmap pills() {
+		return pills;
+	}
+	
+	List<int[]> pacmanPortals() {
+		return pacmanPortals;
+	}
+	
+	List<int[]> ghostPortals() {
+		return ghostPortals;
+	}
+	
+	ByteBuffer wallMasks() {
+		if(wallMasks == null) {
+			computeMasks();
+		}
+		return wallMasks.duplicate();
+	}
+	
+	ByteBuffer exitMasks() {
+		if(exitMasks == null) {
+			computeMasks();
+		}
+		return exitMasks.duplicate();
+	}
+	
+	void setMasks(ByteBuffer wallMasks, ByteBuffer exitMasks) {
+		this.wallMasks = wallMasks;
+		this.exitMasks = exitMasks;
+	}
+	
+	/**
+	 * Set the content hash of this board. This is done by the loader, or by a
+	 * relay which received the hash along with the walls.
+	 * 
+	 * @param hash
+	 */
+	public void setHash(byte[] hash) {
+		this.hash = hash;
+	}
+
+	/**
+	 * Get the board width.
+	 * @return
+	 */
+	public int width() {
+		return width;
+	}
+	
+	/**
+	 * Get the board height.
+	 * @return
+	 */
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * The following constants determine the possible fixed-object types.
+	 */
+	public final static int NOUT = 0;
+	public final static int WALL = 1;	
+	
+	public boolean isPill(int x, int y) {
+		return pills.get(x, y);
+	}
+	
+	public void addPill(int x, int y) {
+		nPillsRemaining++;
+		pills.set(x, y);
+	}
+	
+	public void eatPill(int x, int y) {
+		nPillsRemaining--;
+		pills.clear(x, y);	
+	}
+	
+	public boolean isWall(int x, int y) {
+		return walls.get(x, y);	
+	}
+	
+	public void addWall(int x, int y) {
+		walls.set(x, y);
+		wallBytes = null;
+		wallMasks = null;
+		exitMasks = null;
+	}
+	
+	/**
+	 * Get the wall mask for a given tile, which identifies which of its
+	 * neighbours are walls.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public int wallMask(int x, int y) {
+		if(!isMasked()) {
+			return computeWallMask(x, y);
+		}
+		ByteBuffer masks = wallMasks;
+		if(masks == null) {
+			computeMasks();
+			masks = wallMasks;
+		}
+		return nibble(masks, x + ((long) y*width));
+	}
+	
+	/**
+	 * Get the exit mask for a given tile, which identifies which of its
+	 * neighbours are not walls.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public int exitMask(int x, int y) {
+		if(!isMasked()) {
+			return computeExitMask(x, y);
+		}
+		ByteBuffer masks = exitMasks;
+		if(masks == null) {
+			computeMasks();
+			masks = exitMasks;
+		}
+		return nibble(masks, x + ((long) y*width));
+	}
+	
+	private boolean isMasked() {
+		return ((long) width * height) <= MAX_MASKED_TILES;
+	}
+	
+	private static int nibble(ByteBuffer masks, long index) {
+		return (masks.get((int) (index >> 1)) >> ((index & 1) << 2)) & 0xF;
+	}
+	
+	private int computeWallMask(int x, int y) {
+		int wall = 0;
+		if(y > 0 && isWall(x, y-1)) { wall |= 1; }
+		if(y+1 < height && isWall(x, y+1)) { wall |= 2; }
+		if(x > 0 && isWall(x-1, y)) { wall |= 4; }
+		if(x+1 < width && isWall(x+1, y)) { wall |= 8; }
+		return wall;
+	}
+	
+	private int computeExitMask(int x, int y) {
+		int exit = 0;
+		if(y > 0 && !isWall(x, y-1)) { exit |= 1; }
+		if(y+1 < height && !isWall(x, y+1)) { exit |= 2; }
+		if(!isWall((x + width - 1) % width, y)) { exit |= 4; }
+		if(!isWall((x + 1) % width, y)) { exit |= 8; }
+		return exit;
+	}
+	
+	/**
+	 * Compute the wall and exit masks for every tile on the board. Each byte
+	 * holds the masks for two tiles, and the bytes are computed in parallel.
+	 */
+	private void computeMasks() {
+		synchronized(maskLock) {
+			if(wallMasks == null || exitMasks == null) {
+				computeMasksLocked();
+			}
+		}
+	}
+	
+	private void computeMasksLocked() {
+		final long ntiles = (long) width * height;
+		final int nbytes = (int) ((ntiles + 1) / 2);
+		ByteBuffer wm = ByteBuffer.allocateDirect(nbytes);
+		ByteBuffer em = ByteBuffer.allocateDirect(nbytes);
+		IntStream.range(0, nbytes).parallel().forEach(i -> {
+			int w = 0;
+			int e = 0;
+			for(int j=0;j!=2;++j) {
+				long index = ((long) i * 2) + j;
+				if(index >= ntiles) {
+					break;
+				}
+				int x = (int) (index % width);
+				int y = (int) (index / width);
+				w |= computeWallMask(x, y) << (j << 2);
+				e |= computeExitMask(x, y) << (j << 2);
+			}
+			wm.put(i, (byte) w);
+			em.put(i, (byte) e);
+		});
+		wallMasks = wm;
+		exitMasks = em;
+	}
+	
+	/**
+	 * Get the content hash of this board. This uniquely identifies its
+	 * initial layout, and is null unless the board was loaded from a file (or
+	 * received by a relay).
+	 * 
+	 * @return
+	 */
+	public byte[] hash() {
+		return hash;
+	}
+		
+	/**
+	 * The UID is a unique identifier for all characters in the game. This is
+	 * required in order to synchronise the movements of different players
+	 * across boards. Each board issues its own uids, and so a server hosting
+	 * many boards may issue the same uid in more than one of them. The
+	 * following holds the last uid issued by this board.
+	 */
+	private int lastUid = 0;
+
+	/**
+	 * Register a new pacman portal on the board. A pacman portal is a place
+	 * where pacman will appear from.
+	 * 
+	 * @param x
+	 * @param y
+	 */
+	public synchronized void registerPacPortal(int x, int y) {
+		pacmanPortals.add(new int[]{x,y});
+	}
+
+	/**
+	 * Make the current thread the owner of this board. From now on, every
+	 * change to the board made by any other thread is applied by this thread,
+	 * at the start of the next clock tick.
+	 */
+	public void own() {
+		wallsToByteArray(); // so that connecting clients needn't lock
+		owner = Thread.currentThread();
+	}
+	
+	/**
+	 * Apply a command to the board. If the board is owned by another thread,
+	 * then the command is queued until the owner's next clock tick, and this
+	 * waits until it's been applied. Otherwise, it's applied immediately.
+	 * 
+	 * @param command
+	 * @return the result of the command.
+	 * @throws IOException
+	 */
+	public <T> T call(Command<T> command) throws IOException {
+		try {
+			return call(command, 0);
+		} catch(TimeoutException e) {
+			// can't happen, since we wait forever
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Apply a command to the board, waiting no longer than a given time for
+	 * the owner to apply it.
+	 * 
+	 * @param command
+	 * @param timeout
+	 *            --- longest time to wait (in ms), or 0 to wait forever.
+	 * @return the result of the command.
+	 * @throws IOException
+	 * @throws TimeoutException
+	 *             if the owner didn't apply the command in time (though it
+	 *             may still do so later).
+	 */
+	public <T> T call(Command<T> command, long timeout) throws IOException,
+			TimeoutException {
+		Thread o = owner;
+		if(!isForeign(o)) {
+			synchronized(this) {
+				return command.apply(this);
+			}
+		}
+		CommandQueue.Pending<T> pending = new CommandQueue.Pending<T>(command);
+		commands.add(pending);
+		return commands.await(pending, this, o, timeout);
+	}
+	
+	/**
+	 * Apply a command which doesn't perform any I/O.
+	 */
+	private <T> T run(Command<T> command) {
+		try {
+			return call(command);
+		} catch(IOException e) {
+			// can't happen, since the command doesn't perform I/O
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Check whether the board is owned by a thread other than this one, which
+	 * is still alive.
+	 * 
+	 * @return
+	 */
+	private boolean isForeign() {
+		return isForeign(owner);
+	}
+	
+	private static boolean isForeign(Thread o) {
+		return o != null && o != Thread.currentThread() && o.isAlive();
+	}
+	
+	/**
+	 * Get the latest snapshot of the board's state, as produced by
+	 * toByteArray(). If the board is owned, this is the snapshot published
+	 * at the end of the last clock tick, and so doesn't need the board's
+	 * lock.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] snapshot() throws IOException {
+		byte[] s = snapshot;
+		return s != null ? s : toByteArray();
+	}
+
+	/**
+	 * Set the radius (in tiles) of the window around each player which they
+	 * are sent, or 0 to send every player the whole board.
+	 * 
+	 * @param radius
+	 */
+	public void setInterestRadius(int radius) {
+		interestRadius = radius;
+		if(radius == 0) {
+			index = null;
+		}
+	}
+	
+	/**
+	 * Get the spatial index published at the end of the last clock tick.
+	 * 
+	 * @return the index, or null if there is none.
+	 */
+	public SpatialIndex index() {
+		return index;
+	}
+
+	/**
+	 * Register a new pacman into the game. The Pacman will be placed onto the
+	 * next available portal.
+	 * 
+	 * @return
+	 */
+	public int registerPacman() {
+		if(isForeign()) {
+			return run(new Command<Integer>() {
+				public Integer apply(Board board) {
+					return board.registerPacman();
+				}
+			});
+		}
+		synchronized(this) {
+			return registerPacman(lastUid + 1);
+		}
+	}
+	
+	/**
+	 * Register a new pacman for a player who has already been issued with a
+	 * uid (e.g. because their pacman was lost when the board was reset). The
+	 * pacman enters the game at the next pacman portal.
+	 * 
+	 * @param uid
+	 * @return the uid.
+	 */
+	public int registerPacman(final int uid) {
+		if(isForeign()) {
+			return run(new Command<Integer>() {
+				public Integer apply(Board board) {
+					return board.registerPacman(uid);
+				}
+			});
+		}
+		synchronized(this) {
+			int[] portal = pacmanPortals.get(nextPacPortal);
+			nextPacPortal = (nextPacPortal + 1) % pacmanPortals.size();
+			Character r = new Pacman(portal[0] * 30, portal[1] * 30,
+					MovingCharacter.STOPPED, uid, 3, 0);
+			characters.add(r);
+			lastUid = Math.max(lastUid, uid);
+			version++;
+			journalKeyframes();
+			return uid;
+		}
+	}
+
+	/**
+	 * A pre-registered pacman has died, but wants to come back to life.
+	 * Therefore, allocate it the next available pacman portal.
+	 * 
+	 * @return
+	 */
+	public int[] respawnPacman() {
+		int[] portal = pacmanPortals.get(nextPacPortal);
+		nextPacPortal = (nextPacPortal + 1) % pacmanPortals.size();
+		return portal;
+	}
+	
+	/**
+	 * Register a new ghost portal on the board. A ghost portal is a place
+	 * where ghosts will appear from.
+	 * 
+	 * @param x
+	 * @param y
+	 */
+	public synchronized void registerGhostPortal(int x, int y) {
+		ghostPortals.add(new int[]{x,y});
+	}
+	
+	/**
+	 * Register a new ghost into the game. The ghost will be placed into the
+	 * next available ghost portal.
+	 * 
+	 * @param homer --- is this a homing ghost or not?
+	 */
+	public synchronized void registerGhost(boolean homer) {
+		int[] portal = ghostPortals.get(nextGhostPortal);
+		nextGhostPortal = (nextGhostPortal + 1) % ghostPortals.size();
+		Character r;
+		if(homer) {
+			r = new HomerGhost(portal[0]*30,portal[1]*30);
+		} else {
+			r = new RandomGhost(portal[0]*30,portal[1]*30);
+		}
+		characters.add(r);
+	}
+	
+	public synchronized void removeCharacter(Character character) {
+		for(int i=0;i!=characters.size();++i) {
+			Character p = characters.get(i);
+			if(character == p) {
+				// NOTE: we can't call remove here, since this results in a
+				// concurrent modification exception, as this method will be
+				// called indirectly from the clockTick() method.
+				characters.set(i,null);
+				return;
+			}
+		}
+	}
+	
+	public void disconnectPlayer(final int uid) {		
+		if(isForeign()) {
+			run(new Command<Void>() {
+				public Void apply(Board board) {
+					board.disconnectPlayer(uid);
+					return null;
+				}
+			});
+			return;
+		}
+		synchronized(this) {
+			for(int i=0;i!=characters.size();++i) {
+				Character p = characters.get(i);
+				if (p instanceof Pacman && ((Pacman) p).uid() == uid) {
+					characters.set(i, new Disappear(p.realX(), p.realY(),0));
+				}
+			}
+			version++;
+			journalKeyframes();
+		}
+	}
+	
+	/**
+	 * Check whether there is a pacman with the given uid.
+	 * 
+	 * @param uid
+	 * @return
+	 */
+	public boolean isPlayer(final int uid) {
+		if(isForeign()) {
+			return run(new Command<Boolean>() {
+				public Boolean apply(Board board) {
+					return board.isPlayer(uid);
+				}
+			});
+		}
+		synchronized(this) {
+			for(Character p : characters) {
+				if (p instanceof Pacman && ((Pacman) p).uid() == uid) {
+					return true;
+				}			
+			}
+			return false;
+		}
+	}
+	
+	public synchronized Pacman player(int uid) {
+		for(Character p : characters) {
+			if (p instanceof Pacman && ((Pacman) p).uid() == uid) {
+				return (Pacman) p;
+			}			
+		}
+		throw new IllegalArgumentException("Invalid Character UID");
+	}
+	
+	/**
+	 * Queue an input from a given player, which requests that their pacman
+	 * changes direction. This can be called from any thread, and doesn't take
+	 * the board's lock. The input is applied at the start of the next clock
+	 * tick, and replaces any earlier input from the same player which hasn't
+	 * been applied yet.
+	 * 
+	 * @param uid
+	 * @param direction
+	 *            --- one of MovingCharacter.UP, DOWN, RIGHT or LEFT.
+	 */
+	public void input(int uid, int direction) {
+		if(direction < MovingCharacter.UP || direction > MovingCharacter.LEFT) {
+			return; // ignore anything else
+		}
+		inputs.add(uid, direction, System.nanoTime());
+	}
+	
+	/**
+	 * Get the distribution of the time (in ns) between an input arriving and
+	 * it being applied.
+	 * 
+	 * @return
+	 */
+	public Histogram inputLatency() {
+		return inputLatency;
+	}
+	
+	/**
+	 * Apply the queued inputs, recording each in the journals.
+	 * 
+	 * @return the number of inputs applied.
+	 */
+	private int applyInputs() {
+		ArrayList<InputQueue.Input> pending = inputs.drain();
+		long now = System.nanoTime();
+		for(int i=0;i!=pending.size();++i) {
+			InputQueue.Input in = pending.get(i);
+			Pacman p = null;
+			for(Character c : characters) {
+				if (c instanceof Pacman && ((Pacman) c).uid() == in.uid) {
+					p = (Pacman) c;
+				}
+			}
+			if(p == null) {
+				continue; // the player must have left
+			}
+			switch(in.direction) {
+				case MovingCharacter.UP:
+					p.moveUp();
+					break;
+				case MovingCharacter.DOWN:
+					p.moveDown();
+					break;
+				case MovingCharacter.RIGHT:
+					p.moveRight();
+					break;
+				case MovingCharacter.LEFT:
+					p.moveLeft();
+					break;
+			}
+			for(Journal j : journals) {
+				j.input(tick, in.uid, in.direction);
+			}
+			inputLatency.record(now - in.timestamp);
+		}
+		return pending.size();
+	}
+	
+	/**
+	 * Iterate the characters in the game
+	 * @return
+	 */
+	public List<Character> characters() {
+		return characters;
+	}
+	
+	/**
+	 * Get current board state.
+	 * @return
+	 */
+	public int state() {
+		return state;
+	}
+	
+	/**
+	 * Set the board state.
+	 * @param state
+	 */
+	public void setState(final int state) {
+		if(isForeign()) {
+			run(new Command<Void>() {
+				public Void apply(Board board) {
+					board.setState(state);
+					return null;
+				}
+			});
+			return;
+		}
+		synchronized(this) {
+			this.state = state;
+			version++;
+			journalKeyframes();
+		}
+	}
+	
+	/**
+	 * Get the current version of the board. This changes whenever the board
+	 * is updated, either by a clock tick or by a new state being received.
+	 * 
+	 * @return
+	 */
+	public long version() {
+		return version;
+	}
+	
+	/**
+	 * Get the number of clock ticks so far.
+	 * 
+	 * @return
+	 */
+	public long tick() {
+		return tick;
+	}
+	
+	/**
+	 * Generate a random number between 0 (inclusive) and bound (exclusive).
+	 * This uses the same generator as java.util.Random, but keeps its seed on
+	 * the board.
+	 * 
+	 * @param bound
+	 * @return
+	 */
+	int random(int bound) {
+		seed = ((seed * MULTIPLIER) + 0xBL) & MASK;
+		long r = seed >>> (48 - 31);
+		return (int) ((bound * r) >> 31);
+	}
+	
+	/**
+	 * Record this game in a given journal. A keyframe is written immediately,
+	 * and then every so many ticks thereafter.
+	 * 
+	 * @param journal
+	 * @param keyframePeriod
+	 *            --- number of ticks between keyframes.
+	 */
+	public void addJournal(final Journal journal, final int keyframePeriod) {
+		if(isForeign()) {
+			run(new Command<Void>() {
+				public Void apply(Board board) {
+					board.addJournal(journal, keyframePeriod);
+					return null;
+				}
+			});
+			return;
+		}
+		synchronized(this) {
+			journals.add(journal);
+			keyframePeriods.add(keyframePeriod);
+			journal.keyframe(tick, journalKeyframe());
+		}
+	}
+	
+	/**
+	 * Stop recording this game in a given journal.
+	 * 
+	 * @param journal
+	 */
+	public void removeJournal(final Journal journal) {
+		if(isForeign()) {
+			run(new Command<Void>() {
+				public Void apply(Board board) {
+					board.removeJournal(journal);
+					return null;
+				}
+			});
+			return;
+		}
+		synchronized(this) {
+			int i = journals.indexOf(journal);
+			if(i >= 0) {
+				journals.remove(i);
+				keyframePeriods.remove(i);
+			}
+		}
+	}
+	
+	/**
+	 * Write a keyframe to every journal, since the board has been changed
+	 * other than by a clock tick or an input.
+	 */
+	private void journalKeyframes() {
+		if(!journals.isEmpty()) {
+			byte[] keyframe = journalKeyframe();
+			for(Journal j : journals) {
+				j.keyframe(tick, keyframe);
+			}
+		}
+	}
+	
+	private byte[] journalKeyframe() {
+		try {
+			return keyframe();
+		} catch(IOException e) {
+			// can't happen, since we're writing to a byte array
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public boolean canMoveUp(MovingCharacter p) {
+		int realX = p.realX();
+		int realY = p.realY();
+		realY -= p.speed();
+		int ny = realY / 30;
+		int nx = (realX+15)/30;
+		return !isWall(nx,ny); 
+	}
+
+	public boolean canMoveDown(MovingCharacter p) {
+		int realX = p.realX();
+		int realY = p.realY();
+		realY += 5;
+		int ny = realY / 30;
+		if(realY % 30 != 0) { ny++; }
+		int nx = (realX+15)/30;
+		return !isWall(nx,ny); 
+	}
+	
+	public boolean canMoveLeft(MovingCharacter p) {
+		int realX = p.realX();
+		int realY = p.realY();
+		realX -= 5;
+		int nx = realX / 30;
+		int ny = (realY+15)/30;
+		return !isWall(nx,ny); 
+	}
+	
+	public boolean canMoveRight(MovingCharacter p) {
+		int realX = p.realX();
+		int realY = p.realY();
+		realX += 5;
+		int nx = realX / 30;
+		if(realX % 30 != 0) { nx++; }
+		int ny = (realY+15)/30;
+		return !isWall(nx,ny); 
+	}
+	/**
+	 * The clock tick is essentially a clock trigger, which allows the board to
+	 * update the current state. The frequency with which this is called
+	 * determines the rate at which the game state is updated. Each tick of an
+	 * active game emits a TickEvent, which can be seen using the flight
+	 * recorder.
+	 * 
+	 * @return
+	 */
+	public synchronized void clockTick() {
+		if (tick != 0) {
+			// NOTE: keyframes are taken at the start of the tick, since the
+			// tick may return early. They're shared between journals.
+			byte[] keyframe = null;
+			for(int i=0;i!=journals.size();++i) {
+				if((tick % keyframePeriods.get(i)) == 0) {
+					if(keyframe == null) {
+						keyframe = journalKeyframe();
+					}
+					journals.get(i).keyframe(tick, keyframe);
+				}
+			}
+		}
+		// NOTE: commands and inputs are applied after the keyframes, since
+		// replaying a keyframe is followed by replaying the inputs of the same
+		// tick (and commands write their own keyframes).
+		int ncommands = commands.drain(this);
+		int ninputs = applyInputs();
+		tick++;
+		update(ncommands, ninputs);
+		if(owner != null) {
+			try {
+				snapshot = toByteArray();
+				int radius = interestRadius;
+				if(radius > 0) {
+					index = new SpatialIndex(this, snapshot, characters, radius);
+				}
+			} catch(IOException e) {
+				// can't happen, since we're writing to a byte array
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Update the characters on the board by one clock tick.
+	 * 
+	 * @param ncommands
+	 *            --- number of commands applied at the start of this tick.
+	 * @param ninputs
+	 *            --- number of inputs applied at the start of this tick.
+	 */
+	private void update(int ncommands, int ninputs) {
+		if (state != PLAYING && state != GAMEOVER) {
+			return; // do nothing unless the game is active.
+		}
+		TickEvent event = new TickEvent();
+		event.begin();
+		
+		ArrayList<Character> ghosts = new ArrayList<Character>();
+		
+		int nplayers = 0;
+		int collisions = 0;
+		for(int i=0;i!=characters.size();++i) {
+			Character p = characters.get(i);			
+			p.tick(this);
+			
+			// reread p, since it might be gone now ...
+			p = characters.get(i);
+			if(p == null) {
+				// dead character encountered, remove it.
+				characters.remove(i--);
+				continue;				
+			} 
+			if (p instanceof Ghost) {					
+				ghosts.add(p);				
+			}			
+		}
+		
+		// Now, perform collision detection to see if any PACMEN have collided
+		// with ghosts.
+		for (int i = 0; i != characters.size(); ++i) {
+			Character c = characters.get(i);
+			int px = (c.realX() + 15) / 30;
+			int py = (c.realY() + 15) / 30;
+			if (c instanceof Pacman) {
+				Pacman p = (Pacman) c;
+				if(!p.isDead()) { nplayers++; }
+				if(p.isDead() || p.isDying()) { continue; }				
+				for (Character g : ghosts) {
+					int gx = (g.realX() + 15) / 30;
+					int gy = (g.realY() + 15) / 30;
+					if (px == gx && py == gy) {
+						// pacman and ghost have collided ...
+						// So, replace pacman with disappearing character
+						p.markAsDying();
+						collisions++;
+					}
+				}
+			}
+		}
+		
+		if (nplayers == 0) {
+			state = GAMEOVER;
+		} else if(nPillsRemaining == 0) {
+			state = GAMEWON;
+		}
+		
+		if(--ticksUntilEviction == 0) {
+			evictChunks();
+			ticksUntilEviction = EVICTION_PERIOD;
+		}
+		
+		version++;
+		
+		event.end();
+		if(event.shouldCommit()) {
+			event.tick = tick;
+			event.characters = characters.size();
+			event.collisions = collisions;
+			event.pills = nPillsRemaining;
+			event.inputs = ninputs;
+			event.commands = ncommands;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * The following method accepts a byte array representing the state of a
+	 * pacman board; this state will be broadcast by a master connection, and is
+	 * then used to overwrite the current state (since it should be more up to
+	 * date).
+	 * 
+	 * @param bytes
+	 */
+	public void fromByteArray(final byte[] bytes) throws IOException {		
+		if(isForeign()) {
+			call(new Command<Void>() {
+				public Void apply(Board board) throws IOException {
+					board.fromByteArray(bytes);
+					return null;
+				}
+			});
+			return;
+		}
+		synchronized(this) {
+			ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
+			DataInputStream din = new DataInputStream(bin);
+			readState(din);
+			journalKeyframes();
+		}
+	}
+	
+	private void readState(DataInputStream din) throws IOException {
+		int s = din.readByte() & 0xFF;
+		if((s & SpatialIndex.WINDOW) != 0) {
+			readWindow(s & ~SpatialIndex.WINDOW, din);
+			return;
+		}
+		state = s;
+		// Second, update pills
+		int bitwidth = width%8 == 0 ? width : width+8;
+		int bitsize = (bitwidth/8)*height;
+		byte[] pillBytes = new byte[bitsize];
+		din.read(pillBytes);
+		long[] pillWords = wordsFromByteArray(pillBytes);
+		if(pills instanceof ChunkedBitmap) {
+			// keep loading unchanged chunks from the source, rather than
+			// moving every chunk onto the heap
+			((ChunkedBitmap) pills).setWords(pillWords);
+		} else {
+			pills = ChunkedBitmap.fromWords(width, height, pillWords);
+		}
+		nPillsRemaining = pills.cardinality();
+				
+		// Third, update characters
+		int ncharacters = din.readInt();
+		characters.clear();
+		nGhosts = 0;
+		for(int i=0;i!=ncharacters;++i) {						
+			Character c = Character.fromInputStream(din);
+			if(c instanceof Ghost) {
+				nGhosts++;
+			}
+			characters.add(c);
+		}
+		version++;
+	}
+
+	/**
+	 * Read a window onto the board, as produced by SpatialIndex.window().
+	 * Only the pills within the window, and the characters within its halo,
+	 * are replaced. The characters outside the halo were last seen in an
+	 * earlier frame, and so some of them may since have moved into it; these
+	 * must be removed, otherwise they'd be seen twice. A pacman is identified
+	 * by its uid. Ghosts have no identity but, since they're never added or
+	 * removed during a game, any ghosts in excess of those seen in the last
+	 * full frame are removed, starting with those nearest the halo.
+	 * 
+	 * @param s
+	 *            --- the state of the board.
+	 * @param din
+	 * @throws IOException
+	 */
+	private void readWindow(int s, DataInputStream din) throws IOException {
+		state = s;
+		int x0 = din.readInt();
+		int y0 = din.readInt();
+		int x1 = din.readInt();
+		int y1 = din.readInt();
+		// First, update pills within the window
+		byte[] row = new byte[(x1 - x0 + 7) / 8];
+		for(int y=y0;y!=y1;++y) {
+			din.readFully(row);
+			for(int x=x0;x!=x1;++x) {
+				boolean pill = (row[(x - x0) >> 3] & (1 << ((x - x0) & 7))) != 0;
+				if(pill && !pills.get(x, y)) {
+					pills.set(x, y);
+					nPillsRemaining++;
+				} else if(!pill && pills.get(x, y)) {
+					pills.clear(x, y);
+					nPillsRemaining--;
+				}
+			}
+		}
+		// Second, replace characters within the halo
+		int hx0 = din.readInt();
+		int hy0 = din.readInt();
+		int hx1 = din.readInt();
+		int hy1 = din.readInt();
+		for(int i=0;i!=characters.size();++i) {
+			if(distance(characters.get(i), hx0, hy0, hx1, hy1) == 0) {
+				characters.remove(i--);
+			}
+		}
+		int ncharacters = din.readInt();
+		for(int i=0;i!=ncharacters;++i) {
+			Character c = Character.fromInputStream(din);
+			if(c instanceof Pacman) {
+				removePacman(((Pacman) c).uid());
+			}
+			characters.add(c);
+		}
+		// Third, remove any ghosts seen twice
+		int surplus = -nGhosts;
+		for(Character c : characters) {
+			if(c instanceof Ghost) {
+				surplus++;
+			}
+		}
+		for(;surplus > 0;--surplus) {
+			int nearest = -1;
+			int best = Integer.MAX_VALUE;
+			for(int i=0;i!=characters.size();++i) {
+				Character c = characters.get(i);
+				int d = distance(c, hx0, hy0, hx1, hy1);
+				if(c instanceof Ghost && d > 0 && d < best) {
+					nearest = i;
+					best = d;
+				}
+			}
+			if(nearest < 0) {
+				break; // every ghost is within the halo
+			}
+			characters.remove(nearest);
+		}
+		version++;
+	}
+	
+	/**
+	 * Remove the pacman (if any) with a given uid.
+	 * 
+	 * @param uid
+	 */
+	private void removePacman(int uid) {
+		for(int i=0;i!=characters.size();++i) {
+			Character c = characters.get(i);
+			if(c instanceof Pacman && ((Pacman) c).uid() == uid) {
+				characters.remove(i--);
+			}
+		}
+	}
+	
+	/**
+	 * Determine the distance (in tiles) of a character from a given region of
+	 * the board, or 0 if it's within it.
+	 */
+	private int distance(Character c, int x0, int y0, int x1, int y1) {
+		int x = SpatialIndex.tileX(c, width);
+		int y = SpatialIndex.tileY(c, height);
+		int dx = Math.max(0, Math.max(x0 - x, x - (x1 - 1)));
+		int dy = Math.max(0, Math.max(y0 - y, y - (y1 - 1)));
+		return Math.max(dx, dy);
+	}
+
+	/**
+	 * The following method accepts a byte array representation of the board
+	 * walls. This is broadcast by a master connection when the connection is
+	 * established.
+	 * 
+	 * @param bytes
+	 */
+	public synchronized void wallsFromByteArray(byte[] bytes) {
+		walls = ChunkedBitmap.fromWords(width, height, wordsFromByteArray(bytes));
+		wallBytes = null;
+		wallMasks = null;
+		exitMasks = null;
+		version++;
+	}
+	
+	/**
+	 * Read a flat array of words from a byte array, where tile (x,y) is given
+	 * by bit (x + y*width).
+	 */
+	private static long[] wordsFromByteArray(byte[] bytes) {
+		long[] words = new long[(bytes.length + 7) / 8];
+		ByteBuffer.wrap(Arrays.copyOf(bytes, words.length * 8))
+				.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(words);
+		return words;
+	}
+		
+	/**
+	 * The following method converts the current state of the board into a byte
+	 * array, such that it can be shipped across a connection to an awaiting
+	 * client.
+	 * 
+	 * @return
+	 */
+	public synchronized byte[] toByteArray() throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		writeState(dout);
+		
+		// Finally, return!!
+		return bout.toByteArray(); 
+	}
+	
+	private void writeState(DataOutputStream dout) throws IOException {
+		dout.writeByte(state);
+		
+		// First, write output locations of remaining pills
+		int bitwidth = width%8 == 0 ? width : width+8;
+		int bitsize = (bitwidth/8)*height;
+		byte[] pillBytes = new byte[bitsize];
+		bitsToByteArray(pills,pillBytes);
+		dout.write(pillBytes);
+		
+
+		dout.writeInt(characters.size());
+		for(Character p : characters) {			
+			p.toOutputStream(dout);			
+		}
+		
+		dout.flush();
+	}
+	
+	/**
+	 * The following method generates a keyframe, which captures the complete
+	 * state of the board. Unlike the state broadcast to clients, this includes
+	 * everything needed to continue the game from this point exactly as it
+	 * would have continued anyway, such as the random seed and any direction
+	 * changes which are queued.
+	 * 
+	 * @return
+	 */
+	public synchronized byte[] keyframe() throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		dout.writeLong(tick);
+		dout.writeLong(seed);
+		writePortals(pacmanPortals, dout);
+		writePortals(ghostPortals, dout);
+		dout.writeInt(nextPacPortal);
+		dout.writeInt(nextGhostPortal);
+		dout.writeInt(lastUid);
+		writeState(dout);
+		for(Character c : characters) {
+			if(c instanceof MovingCharacter) {
+				dout.writeByte(((MovingCharacter) c).queued);
+			}
+		}
+		dout.flush();
+		return bout.toByteArray();
+	}
+	
+	/**
+	 * The following method restores the board to the state captured in a
+	 * keyframe.
+	 * 
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public void fromKeyframe(final byte[] bytes) throws IOException {
+		if(isForeign()) {
+			call(new Command<Void>() {
+				public Void apply(Board board) throws IOException {
+					board.fromKeyframe(bytes);
+					return null;
+				}
+			});
+			return;
+		}
+		synchronized(this) {
+			DataInputStream din = new DataInputStream(new ByteArrayInputStream(bytes));
+			inputs.clear();
+			tick = din.readLong();
+			seed = din.readLong();
+			readPortals(pacmanPortals, din);
+			readPortals(ghostPortals, din);
+			nextPacPortal = din.readInt();
+			nextGhostPortal = din.readInt();
+			lastUid = Math.max(lastUid, din.readInt());
+			readState(din);
+			for(Character c : characters) {
+				if(c instanceof MovingCharacter) {
+					((MovingCharacter) c).queued = din.readByte();
+				}
+			}
+		}
+	}
+	
+	private static void writePortals(List<int[]> portals, DataOutputStream dout)
+			throws IOException {
+		dout.writeInt(portals.size());
+		for(int[] p : portals) {
+			dout.writeInt(p[0]);
+			dout.writeInt(p[1]);
+		}
+	}
+	
+	private static void readPortals(List<int[]> portals, DataInputStream din)
+			throws IOException {
+		portals.clear();
+		int n = din.readInt();
+		for(int i=0;i!=n;++i) {
+			portals.add(new int[] { din.readInt(), din.readInt() });
+		}
+	}
+
+	/**
+	 * The following method generates a byte array representation of the walls
+	 * in the board. This is broadcast by a master connection when that
+	 * connection is established.
+	 * 
+	 * Since walls never change during a game, they're only encoded the first
+	 * time they're needed; after that, connecting clients don't take the
+	 * board's lock, and so can't hold up the clock tick. The array returned
+	 * must not be changed.
+	 * 
+	 * @return
+	 */
+	public byte[] wallsToByteArray() {
+		byte[] bytes = wallBytes;
+		if(bytes != null) {
+			return bytes;
+		}
+		synchronized(this) {
+			if(wallBytes == null) {
+				int bitwidth = width%8 == 0 ? width : width+8;
+				int bitsize = (bitwidth/8)*height;
+				wallBytes = bitsToByteArray(walls,new byte[bitsize]);
+			}
+			return wallBytes;
+		}
+	}
+	
+	/**
+	 * Create a byte array from a bitmap, where tile (x,y) is given by bit (x +
+	 * y*width).
+	 */
+	private static byte[] bitsToByteArray(Bitmap bits, byte[] bytes) {
+		long[] words = bits.toWords();
+		ByteBuffer buffer = ByteBuffer.allocate(words.length * 8).order(
+				ByteOrder.LITTLE_ENDIAN);
+		buffer.asLongBuffer().put(words);
+		buffer.get(bytes, 0, Math.min(bytes.length, buffer.capacity()));
+		return bytes;
+	}
+	
+	/**
+	 * Evict any chunks of the board which aren't near a character. They will
+	 * be loaded again when next needed.
+	 */
+	private void evictChunks() {
+		ArrayList<int[]> tiles = new ArrayList<int[]>();
+		for(Character c : characters) {
+			tiles.add(new int[] { (c.realX() + 15) / 30, (c.realY() + 15) / 30 });
+		}
+		walls.evict(tiles, 1);
+		pills.evict(tiles, 1);
+	}	
+}
@@ -0,0 +1,454 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.game;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * The board loader is responsible for constructing a board from a text file.
+ * Each line of the file gives one row of the board, and each character one
+ * tile: 'W' is a wall, 'P' a pill, 'X' a pacman portal and 'G' a ghost portal.
+ * 
+ * Since board files can be very large, the file is memory-mapped rather than
+ * read into memory. Furthermore, since every line has the same width, the
+ * position of any tile in the file can be calculated directly. This means the
+ * file can be parsed in parallel, with each task filling in its own range of
+ * words in the wall and pill bitsets.
+ * 
+ * Alternatively, a board can be compiled into a binary file, which holds the
+ * wall and pill bitsets in packed form along with the portals, the wall and
+ * exit masks for each tile, and a content hash identifying the board. Compiled
+ * boards are memory-mapped, and don't need to be parsed at all. Since the
+ * walls are read directly from a shared mapping, several processes hosting
+ * the same compiled board share a single copy of them.
+ * 
+ * @author djp
+ * 
+ */
+public final class BoardLoader {
+	
+	/**
+	 * The number of tiles parsed by each parallel task. This must be a
+	 * multiple of 64, so that no two tasks ever write to the same word.
+	 */
+	private static final int TILES_PER_TASK = 64 * 1024;
+	
+	/**
+	 * Every compiled board file begins with this magic number ("PMB1").
+	 */
+	public static final int MAGIC = 0x504D4231;
+	
+	/**
+	 * The length of a content hash (in bytes).
+	 */
+	public static final int HASH_LENGTH = 32;
+	
+	/**
+	 * Load a board from a given file, and populate it with the given number of
+	 * ghosts.
+	 * 
+	 * @param filename
+	 * @param nHomerGhosts
+	 * @param nRandomGhosts
+	 * @return
+	 * @throws IOException
+	 */
+	public static Board load(String filename, int nHomerGhosts,
+			int nRandomGhosts) throws IOException {
+		Board board;
+		
+		try (FileChannel channel = FileChannel.open(Paths.get(filename),
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("Input file \"" + filename + "\" is too large.");
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if(size >= 4 && buffer.getInt(0) == MAGIC) {
+				board = loadCompiled(filename, channel);
+			} else {
+				board = parse(filename, buffer);
+				board.setHash(hash(board));
+			}
+		}
+		
+		for(int i=0;i!=nHomerGhosts;++i) {
+			board.registerGhost(true);
+		}
+		for(int i=0;i!=nRandomGhosts;++i) {		
+			board.registerGhost(false);
+		}
+			
+		return board;
+	}
+	
+	/**
+	 * Load a board from a given file such that its walls are shared with any
+	 * other process hosting the same board. If the file is not already
+	 * compiled, then it's compiled into a cache directory first; subsequent
+	 * loads of the same (unchanged) file then use the cached copy, and don't
+	 * need to parse it at all.
+	 * 
+	 * @param filename
+	 * @param nHomerGhosts
+	 * @param nRandomGhosts
+	 * @return
+	 * @throws IOException
+	 */
+	public static Board loadShared(String filename, int nHomerGhosts,
+			int nRandomGhosts) throws IOException {
+		Path path = Paths.get(filename).toAbsolutePath();
+		try (DataInputStream din = new DataInputStream(Files.newInputStream(path))) {
+			if(Files.size(path) >= 4 && din.readInt() == MAGIC) {
+				return load(filename, nHomerGhosts, nRandomGhosts);
+			}
+		}
+		Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "pacman");
+		Path cached = dir.resolve(path.getFileName() + "-"
+				+ Long.toHexString(Files.size(path)) + "-"
+				+ Long.toHexString(Files.getLastModifiedTime(path).toMillis()) + "-"
+				+ Integer.toHexString(path.hashCode()) + ".pmb");
+		if(!Files.exists(cached)) {
+			// Compile into a temporary file, and then move it into place.
+			// Thus, another process will never see a partially written file.
+			Files.createDirectories(dir);
+			Path tmp = Files.createTempFile(dir, "board", ".tmp");
+			try {
+				compile(load(filename, 0, 0), tmp.toString());
+				Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		}
+		return load(cached.toString(), nHomerGhosts, nRandomGhosts);
+	}
+	
+	/**
+	 * Parse a board from a buffer containing the text of a board file. Lines
+	 * may be terminated by either "\n" or "\r\n", and the last line need not
+	 * be terminated at all.
+	 * 
+	 * @param filename
+	 *            --- used for error messages only
+	 * @param buffer
+	 * @return
+	 */
+	private static Board parse(String filename, ByteBuffer buffer) {
+		final int size = buffer.limit();		
+		if(size == 0) {
+			throw new IllegalArgumentException("Input file \"" + filename + "\" is empty.");
+		}
+		
+		// First, the width is determined by the first line, and every other
+		// line must then start exactly one stride after the previous.
+		int w = 0;
+		while(w < size && buffer.get(w) != '\n' && buffer.get(w) != '\r') {
+			w++;
+		}
+		final int width = w;
+		final int eol = (width + 1 < size && buffer.get(width) == '\r') ? 2 : 1;
+		final int stride = width + eol;
+		final int height = (int) (((long) size + eol) / stride);
+		int remainder = (int) (((long) size + eol) % stride);
+		
+		// Second, check that each line ends where it should. Any line which
+		// doesn't is malformed, and we report the first such line.
+		final AtomicInteger malformed = new AtomicInteger(Integer.MAX_VALUE);
+		if(remainder != 0 && remainder != eol) {
+			// there's a partial line at the end of the file
+			malformed.set(height);
+		}
+		IntStream.range(0, height).parallel().forEach(y -> {
+			int end = (y * stride) + width;
+			if(end == size && y == height - 1) {
+				return; // last line need not be terminated
+			} else if(end + eol > size || buffer.get(end + eol - 1) != '\n'
+					|| (eol == 2 && buffer.get(end) != '\r')) {
+				malformed.accumulateAndGet(y, Math::min);
+			}
+		});
+		
+		// Third, parse the tiles themselves.
+		final int ntiles = width * height;
+		final int ntasks = (ntiles + TILES_PER_TASK - 1) / TILES_PER_TASK;
+		final long[] walls = new long[(ntiles + 63) / 64];
+		final long[] pills = new long[(ntiles + 63) / 64];
+		final ArrayList<ArrayList<int[]>> pacPortals = new ArrayList<ArrayList<int[]>>();
+		final ArrayList<ArrayList<int[]>> ghostPortals = new ArrayList<ArrayList<int[]>>();
+		for(int t=0;t!=ntasks;++t) {
+			pacPortals.add(new ArrayList<int[]>());
+			ghostPortals.add(new ArrayList<int[]>());
+		}
+		
+		IntStream.range(0, ntasks).parallel().forEach(t -> {
+			int start = t * TILES_PER_TASK;
+			int end = Math.min(ntiles, start + TILES_PER_TASK);
+			int x = start % width;
+			int y = start / width;
+			for(int i=start;i!=end;++i) {
+				switch(buffer.get((y * stride) + x)) {
+					case 'W' :
+						walls[i >> 6] |= 1L << i;
+						break;
+					case 'P':
+						pills[i >> 6] |= 1L << i;
+						break;
+					case 'X':
+						pacPortals.get(t).add(new int[]{x,y});
+						break;
+					case 'G':
+						ghostPortals.get(t).add(new int[]{x,y});
+						break;
+					case '\n':
+					case '\r':
+						// this line is too short
+						malformed.accumulateAndGet(y, Math::min);
+						break;
+				}
+				if(++x == width) {
+					x = 0;
+					y++;
+				}
+			}
+		});
+		
+		if(malformed.get() != Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Input file \"" + filename
+					+ "\" is malformed; line " + (malformed.get() + 1)
+					+ " incorrect width.");
+		}
+		
+		// Finally, construct the board. Portals are registered in the order
+		// they appear in the file.
+		long npills = 0;
+		for(long word : pills) {
+			npills += Long.bitCount(word);
+		}
+		Board board = new Board(width, height, ChunkedBitmap.fromWords(width,
+				height, walls), ChunkedBitmap.fromWords(width, height, pills), npills);
+		for(int t=0;t!=ntasks;++t) {
+			for(int[] p : pacPortals.get(t)) {
+				board.registerPacPortal(p[0], p[1]);
+			}
+			for(int[] p : ghostPortals.get(t)) {
+				board.registerGhostPortal(p[0], p[1]);
+			}
+		}
+		return board;
+	}
+	
+	/**
+	 * Compile a board into a given file. The board should be freshly loaded,
+	 * since it's the current state of the pills which is written, and no
+	 * characters are included.
+	 * 
+	 * @param board
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static void compile(Board board, String filename) throws IOException {
+		ByteBuffer layout = layout(board);
+		ByteBuffer wallMasks = board.wallMasks();
+		ByteBuffer exitMasks = board.exitMasks();
+		ByteBuffer header = ByteBuffer.allocate(4 + HASH_LENGTH);
+		header.putInt(MAGIC);
+		header.put(digest(layout));
+		header.flip();
+		layout.rewind();
+		ByteBuffer[] buffers = { header, layout, wallMasks, exitMasks };
+		try (FileChannel channel = FileChannel.open(Paths.get(filename),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffers[buffers.length-1].hasRemaining()) {
+				channel.write(buffers);
+			}
+		}
+	}
+	
+	/**
+	 * Load a compiled board. The file is memory-mapped, and the walls and
+	 * masks are then read directly from a read-only mapping. This means that
+	 * every process which loads the same compiled board shares a single copy
+	 * of them, held outside of the heap; furthermore, only those parts of the
+	 * board which are actually used are ever read from disk. The chunks of the
+	 * pill bitmap are loaded from the same mapping on demand, and are only
+	 * copied onto the heap when a pill within them is eaten; thus, each game
+	 * has its own copy of the pills, but unchanged chunks are shared and can be
+	 * evicted again. Note that the content hash is not checked against the
+	 * contents, as this would mean reading every byte of the board.
+	 * 
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	private static Board loadCompiled(String filename, FileChannel channel)
+			throws IOException {
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		try {
+			if(buffer.getInt() != MAGIC) {
+				throw new IOException("Input file \"" + filename + "\" is not a compiled board.");
+			}
+			byte[] hash = new byte[HASH_LENGTH];
+			buffer.get(hash);
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			int[][] pacPortals = readPortals(buffer);
+			int[][] ghostPortals = readPortals(buffer);
+			int nwords = buffer.getInt();
+			int wallsOffset = buffer.position();
+			int pillsOffset = wallsOffset + (nwords * 8);
+			long npills = 0;
+			for(int i=0;i!=nwords;++i) {
+				npills += Long.bitCount(buffer.getLong(pillsOffset + (i * 8)));
+			}
+			buffer.position(pillsOffset + (nwords * 8));
+			int nbytes = (int) ((((long) width * height) + 1) / 2);
+			ByteBuffer wallMasks = slice(buffer, nbytes);
+			ByteBuffer exitMasks = slice(buffer, nbytes);
+			
+			Board board = new Board(width, height,
+					new MappedBitmap(width, height, buffer, wallsOffset, nwords),
+					chunked(width, height, buffer, pillsOffset, nwords), npills);
+			for(int[] p : pacPortals) {
+				board.registerPacPortal(p[0], p[1]);
+			}
+			for(int[] p : ghostPortals) {
+				board.registerGhostPortal(p[0], p[1]);
+			}
+			board.setMasks(wallMasks, exitMasks);
+			board.setHash(hash);
+			return board;
+		} catch(RuntimeException e) {
+			// e.g. buffer underflow
+			throw new IOException("Input file \"" + filename + "\" is corrupt.");
+		}
+	}
+	
+	/**
+	 * Construct a chunked bitmap whose chunks are loaded on demand from a
+	 * range of words in a given buffer.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param buffer
+	 * @param offset
+	 *            --- the offset (in bytes) of the first word
+	 * @param nwords
+	 * @return
+	 */
+	private static ChunkedBitmap chunked(final int width, final int height,
+			final ByteBuffer buffer, final int offset, final int nwords) {
+		final ChunkedBitmap.LongWords words = new ChunkedBitmap.LongWords() {
+			public long get(long index) {
+				return index < nwords ? buffer.getLong(offset + (int) (index * 8)) : 0;
+			}
+		};
+		return new ChunkedBitmap(width, height, new ChunkedBitmap.Source() {
+			public long[] load(int cx, int cy) {
+				return ChunkedBitmap.extract(words, width, height, cx, cy);
+			}
+		});
+	}
+	
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice;
+	}
+	
+	private static int[][] readPortals(ByteBuffer buffer) {
+		int[][] portals = new int[buffer.getInt()][];
+		for(int i=0;i!=portals.length;++i) {
+			portals[i] = new int[] { buffer.getInt(), buffer.getInt() };
+		}
+		return portals;
+	}
+	
+	private static void writePortals(List<int[]> portals, ByteBuffer buffer) {
+		buffer.putInt(portals.size());
+		for(int[] p : portals) {
+			buffer.putInt(p[0]);
+			buffer.putInt(p[1]);
+		}
+	}
+	
+	/**
+	 * Encode the layout of a board, which consists of its dimensions, portals,
+	 * walls and pills. The content hash is computed from this.
+	 * 
+	 * @param board
+	 * @return
+	 */
+	private static ByteBuffer layout(Board board) {
+		int width = board.width();
+		int height = board.height();
+		int nwords = (int) ((((long) width * height) + 63) / 64);
+		List<int[]> pacPortals = board.pacmanPortals();
+		List<int[]> ghostPortals = board.ghostPortals();
+		int size = 8 + 4 + (pacPortals.size() * 8) + 4
+				+ (ghostPortals.size() * 8) + 4 + (nwords * 16);
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(width);
+		buffer.putInt(height);
+		writePortals(pacPortals, buffer);
+		writePortals(ghostPortals, buffer);
+		buffer.putInt(nwords);
+		buffer.asLongBuffer().put(board.walls().toWords())
+				.put(board.pills().toWords());
+		buffer.position(size);
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Compute the content hash of a board from its layout.
+	 * 
+	 * @param board
+	 * @return
+	 */
+	private static byte[] hash(Board board) {
+		return digest(layout(board));
+	}
+	
+	private static byte[] digest(ByteBuffer buffer) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(buffer);
+			return digest.digest();
+		} catch(NoSuchAlgorithmException e) {
+			// should never happen, since every JVM must provide SHA-256
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -18,14 +18,13 @@
 package pacman.game;
 
 import java.io.*;
-import java.awt.*;
-
-import pacman.ui.Board;
 
 /**
  * A Character is a record of information about a particular character in the
  * game. There are essentially two kinds of characters: player controlled and
- * computer controlled.
+ * computer controlled. Characters know nothing about how they are drawn; that
+ * is the responsibility of the renderers in pacman.ui, which means the game
+ * can be run without any graphics at all (e.g. on a dedicated server).
  * 
  * @author djp
  * 
@@ -56,13 +55,6 @@ public abstract class Character {
 	 */
 	public abstract void tick(Board game);
 
-	/**
-	 * This method enables characters to draw themselves onto a given canvas.
-	 * 
-	 * @param g
-	 */
-	public abstract void draw(Graphics g);
-	
 	/**
 	 * The following method is provided to simplify the process of writing a
 	 * given character to the output stream.
@@ -87,8 +79,8 @@ public abstract class Character {
 	 */
 	public static Character fromInputStream(DataInputStream din) throws IOException {
 		int type = din.readByte();
-		int rx = din.readShort();
-		int ry = din.readShort();
+		int rx = din.readInt();
+		int ry = din.readInt();
 		
 		if(type == Character.PACMAN) {
 			return Pacman.fromInputStream(rx,ry,din);
@@ -0,0 +1,480 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.game;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A chunked bitmap stores one bit for every tile on a board. Rather than
+ * storing the whole board as one flat bitset, the board is divided into
+ * chunks of 64 x 64 tiles, where each chunk is an array of 64 words (one per
+ * row of the chunk). This has several advantages for large boards:
+ * 
+ * <ul>
+ * <li>Identical chunks are shared. In particular, empty regions and solid
+ * regions of wall take (almost) no space at all.</li>
+ * <li>Chunks can be loaded lazily from a source (e.g. a compiled board file),
+ * and evicted again when they're no longer needed.</li>
+ * <li>Tiles are addressed by their x and y coordinates, rather than by
+ * (x + y*width), and so boards aren't limited to 2^31 tiles.</li>
+ * </ul>
+ * 
+ * Chunks are shared copy-on-write: a chunk is only copied when one of its bits
+ * is changed. Once copied, a chunk is owned by this bitmap and is never
+ * evicted, since that would lose the change. Note that set(), clear() and
+ * evict() must only be called from one thread at a time; however, get() can
+ * be called from any thread.
+ * 
+ * @author djp
+ * 
+ */
+public final class ChunkedBitmap implements Bitmap {
+	public static final int CHUNK_SHIFT = 6;
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	
+	/**
+	 * Beyond this number of chunks, the chunk table is stored sparsely.
+	 */
+	private static final int MAX_DENSE_CHUNKS = 1 << 20;
+	
+	private static final long[] EMPTY = new long[CHUNK_SIZE];
+	private static final long[] FULL = new long[CHUNK_SIZE];
+	static {
+		Arrays.fill(FULL, -1L);
+	}
+	
+	/**
+	 * A source provides the contents of chunks which are not yet loaded.
+	 */
+	public interface Source {
+		/**
+		 * Load the chunk at a given chunk position. The returned array has one
+		 * word per row of the chunk.
+		 * 
+		 * @param cx
+		 * @param cy
+		 * @return
+		 */
+		public long[] load(int cx, int cy);
+	}
+	
+	private final int width;
+	private final int height;
+	private final int chunksWide;
+	private final int chunksHigh;
+	private final Source source;
+	
+	/**
+	 * The chunk table is held in exactly one of the following. Chunks which
+	 * are not present are either waiting to be loaded from the source or, if
+	 * there is no source, are empty.
+	 */
+	private final AtomicReferenceArray<long[]> dense;
+	private final ConcurrentHashMap<Long,long[]> sparse;
+	
+	/**
+	 * The set of chunks which have been copied, and so belong only to this
+	 * bitmap.
+	 */
+	private final HashSet<Long> owned = new HashSet<Long>();
+	
+	/**
+	 * Construct a bitmap of a given size whose chunks are loaded on demand
+	 * from a given source. If the source is null, then the bitmap is
+	 * initially empty.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param source
+	 */
+	public ChunkedBitmap(int width, int height, Source source) {
+		this.width = width;
+		this.height = height;
+		this.chunksWide = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+		this.chunksHigh = (height + CHUNK_MASK) >> CHUNK_SHIFT;
+		this.source = source;
+		long nchunks = (long) chunksWide * chunksHigh;
+		if(nchunks <= MAX_DENSE_CHUNKS) {
+			this.dense = new AtomicReferenceArray<long[]>((int) nchunks);
+			this.sparse = null;
+		} else {
+			this.dense = null;
+			this.sparse = new ConcurrentHashMap<Long,long[]>();
+		}
+	}
+	
+	public int width() {
+		return width;
+	}
+	
+	public int height() {
+		return height;
+	}
+	
+	public boolean get(int x, int y) {
+		if(x < 0 || y < 0 || x >= width || y >= height) {
+			return false;
+		}
+		long[] chunk = chunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+		return (chunk[y & CHUNK_MASK] & (1L << x)) != 0;
+	}
+	
+	public void set(int x, int y) {
+		long[] chunk = ownedChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+		chunk[y & CHUNK_MASK] |= 1L << x;
+	}
+	
+	public void clear(int x, int y) {
+		long[] chunk = ownedChunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT);
+		chunk[y & CHUNK_MASK] &= ~(1L << x);
+	}
+	
+	/**
+	 * Count the number of bits set in this bitmap. Note that this requires
+	 * every chunk to be examined, and hence loaded.
+	 * 
+	 * @return
+	 */
+	public long cardinality() {
+		long count = 0;
+		for(int cy=0;cy!=chunksHigh;++cy) {
+			for(int cx=0;cx!=chunksWide;++cx) {
+				for(long row : chunk(cx,cy)) {
+					count += Long.bitCount(row);
+				}
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Get the number of chunks currently held in memory, including those
+	 * which are shared.
+	 * 
+	 * @return
+	 */
+	public int residentChunks() {
+		if(sparse != null) {
+			return sparse.size();
+		}
+		int count = 0;
+		for(int i=0;i!=dense.length();++i) {
+			if(dense.get(i) != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Evict every chunk which isn't within a given distance (in chunks) of at
+	 * least one of the given tiles. Only chunks which can be reloaded from the
+	 * source are evicted; that is, chunks which haven't been changed.
+	 * 
+	 * @param tiles
+	 *            --- list of tile positions, each given as {x,y}
+	 * @param radius
+	 * @return the number of chunks evicted
+	 */
+	public int evict(List<int[]> tiles, int radius) {
+		if(source == null) {
+			return 0; // nothing can be reloaded
+		}
+		HashSet<Long> keep = new HashSet<Long>();
+		for(int[] t : tiles) {
+			int cx = t[0] >> CHUNK_SHIFT;
+			int cy = t[1] >> CHUNK_SHIFT;
+			for(int i=Math.max(0,cx-radius);i<=Math.min(chunksWide-1,cx+radius);++i) {
+				for(int j=Math.max(0,cy-radius);j<=Math.min(chunksHigh-1,cy+radius);++j) {
+					keep.add(key(i,j));
+				}
+			}
+		}
+		int count = 0;
+		if(sparse != null) {
+			Iterator<Long> iter = sparse.keySet().iterator();
+			while(iter.hasNext()) {
+				Long k = iter.next();
+				if(!keep.contains(k) && !owned.contains(k)) {
+					iter.remove();
+					count++;
+				}
+			}
+		} else {
+			for(int i=0;i!=dense.length();++i) {
+				Long k = (long) i;
+				if(dense.get(i) != null && !keep.contains(k) && !owned.contains(k)) {
+					dense.set(i, null);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Convert this bitmap into a flat array of words, where tile (x,y) is
+	 * given by bit (x + y*width). This is only possible for boards with fewer
+	 * than 2^31 tiles.
+	 * 
+	 * @return
+	 */
+	public long[] toWords() {
+		long ntiles = (long) width * height;
+		long[] words = new long[(int) ((ntiles + 63) >> 6)];
+		for(int y=0;y!=height;++y) {
+			long base = (long) y * width;
+			for(int cx=0;cx!=chunksWide;++cx) {
+				long row = chunk(cx, y >> CHUNK_SHIFT)[y & CHUNK_MASK];
+				if(row == 0) {
+					continue;
+				}
+				int n = Math.min(CHUNK_SIZE, width - (cx << CHUNK_SHIFT));
+				long start = base + (cx << CHUNK_SHIFT);
+				int index = (int) (start >> 6);
+				int shift = (int) (start & 63);
+				row &= n == 64 ? -1L : (1L << n) - 1;
+				words[index] |= row << shift;
+				if(shift != 0 && (shift + n) > 64) {
+					words[index + 1] |= row >>> (64 - shift);
+				}
+			}
+		}
+		return words;
+	}
+	
+	/**
+	 * Overwrite every bit of this bitmap from a flat array of words, where
+	 * tile (x,y) is given by bit (x + y*width). This is used to reset the
+	 * pills (e.g. at the end of a game). Chunks which then match the source
+	 * are given back to it, just as though they'd never been changed, so
+	 * they're loaded lazily and can be evicted again; only those which differ
+	 * are owned.
+	 * 
+	 * @param words
+	 */
+	public void setWords(long[] words) {
+		for(int cy=0;cy!=chunksHigh;++cy) {
+			for(int cx=0;cx!=chunksWide;++cx) {
+				long[] chunk = extract(words, width, height, cx, cy);
+				long[] original = source != null ? source.load(cx, cy) : EMPTY;
+				Long k = key(cx, cy);
+				if(Arrays.equals(chunk, original)) {
+					owned.remove(k);
+					uninstall(cx, cy);
+				} else {
+					install(cx, cy, chunk);
+					owned.add(k);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Construct a bitmap from a flat array of words, where tile (x,y) is given
+	 * by bit (x + y*width). Identical chunks are shared.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param words
+	 * @return
+	 */
+	public static ChunkedBitmap fromWords(int width, int height, long[] words) {
+		ChunkedBitmap bitmap = new ChunkedBitmap(width, height, null);
+		HashMap<Chunk,long[]> interned = new HashMap<Chunk,long[]>();
+		interned.put(new Chunk(EMPTY), EMPTY);
+		interned.put(new Chunk(FULL), FULL);
+		for(int cy=0;cy!=bitmap.chunksHigh;++cy) {
+			for(int cx=0;cx!=bitmap.chunksWide;++cx) {
+				long[] chunk = extract(words, width, height, cx, cy);
+				long[] existing = interned.get(new Chunk(chunk));
+				if(existing == null) {
+					interned.put(new Chunk(chunk), chunk);
+					existing = chunk;
+				}
+				if(existing != EMPTY) {
+					bitmap.install(cx, cy, existing);
+				}
+			}
+		}
+		return bitmap;
+	}
+	
+	/**
+	 * Extract a chunk from a flat array of words, where tile (x,y) is given by
+	 * bit (x + y*width). This is also used to load chunks from compiled boards.
+	 * 
+	 * @param words
+	 * @param width
+	 * @param height
+	 * @param cx
+	 * @param cy
+	 * @return
+	 */
+	static long[] extract(LongWords words, int width, int height, int cx, int cy) {
+		long[] chunk = new long[CHUNK_SIZE];
+		int x = cx << CHUNK_SHIFT;
+		int n = Math.min(CHUNK_SIZE, width - x);
+		long mask = n == 64 ? -1L : (1L << n) - 1;
+		for(int r=0;r!=CHUNK_SIZE;++r) {
+			int y = (cy << CHUNK_SHIFT) + r;
+			if(y >= height) {
+				break;
+			}
+			long start = ((long) y * width) + x;
+			long index = start >> 6;
+			int shift = (int) (start & 63);
+			long row = words.get(index) >>> shift;
+			if(shift != 0 && (shift + n) > 64) {
+				row |= words.get(index + 1) << (64 - shift);
+			}
+			chunk[r] = row & mask;
+		}
+		return chunk;
+	}
+	
+	private static long[] extract(final long[] words, int width, int height, int cx, int cy) {
+		return extract(new LongWords() {
+			public long get(long index) {
+				return index < words.length ? words[(int) index] : 0;
+			}
+		}, width, height, cx, cy);
+	}
+	
+	/**
+	 * Provides access to a flat array of words, wherever it is stored.
+	 */
+	interface LongWords {
+		public long get(long index);
+	}
+	
+	// =======================================================================
+	// Chunk table
+	// =======================================================================
+	
+	private long key(int cx, int cy) {
+		return ((long) cy * chunksWide) + cx;
+	}
+	
+	/**
+	 * Get the chunk at a given position, loading it if necessary.
+	 */
+	private long[] chunk(int cx, int cy) {
+		long k = key(cx, cy);
+		long[] chunk = dense != null ? dense.get((int) k) : sparse.get(k);
+		if(chunk == null) {
+			if(source == null) {
+				return EMPTY;
+			}
+			chunk = source.load(cx, cy);
+			if(isUniform(chunk, 0)) {
+				chunk = EMPTY;
+			} else if(isUniform(chunk, -1L)) {
+				chunk = FULL;
+			}
+			// Another thread may have installed this chunk in the meantime,
+			// in which case we must use theirs, since it may have been
+			// modified.
+			if(dense != null) {
+				if(!dense.compareAndSet((int) k, null, chunk)) {
+					chunk = dense.get((int) k);
+				}
+			} else {
+				long[] existing = sparse.putIfAbsent(k, chunk);
+				if(existing != null) {
+					chunk = existing;
+				}
+			}
+		}
+		return chunk;
+	}
+	
+	/**
+	 * Get the chunk at a given position, such that it can be modified. If the
+	 * chunk is (potentially) shared, a copy is made first.
+	 */
+	private long[] ownedChunk(int cx, int cy) {
+		if(cx < 0 || cy < 0 || cx >= chunksWide || cy >= chunksHigh) {
+			throw new IndexOutOfBoundsException("Invalid tile");
+		}
+		Long k = key(cx, cy);
+		long[] chunk = chunk(cx, cy);
+		if(!owned.contains(k)) {
+			chunk = chunk.clone();
+			install(cx, cy, chunk);
+			owned.add(k);
+		}
+		return chunk;
+	}
+	
+	private void install(int cx, int cy, long[] chunk) {
+		long k = key(cx, cy);
+		if(dense != null) {
+			dense.set((int) k, chunk);
+		} else {
+			sparse.put(k, chunk);
+		}
+	}
+	
+	/**
+	 * Remove the chunk at a given position, so that it's loaded from the
+	 * source when next needed (or is empty, if there is no source).
+	 */
+	private void uninstall(int cx, int cy) {
+		long k = key(cx, cy);
+		if(dense != null) {
+			dense.set((int) k, null);
+		} else {
+			sparse.remove(k);
+		}
+	}
+	
+	private static boolean isUniform(long[] chunk, long value) {
+		for(long row : chunk) {
+			if(row != value) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * A simple wrapper which allows chunks to be compared by value.
+	 */
+	private static final class Chunk {
+		private final long[] rows;
+		private final int hash;
+		
+		public Chunk(long[] rows) {
+			this.rows = rows;
+			this.hash = Arrays.hashCode(rows);
+		}
+		
+		public int hashCode() {
+			return hash;
+		}
+		
+		public boolean equals(Object o) {
+			return o instanceof Chunk && Arrays.equals(rows, ((Chunk) o).rows);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.game;
+
+import java.io.IOException;
+
+/**
+ * A command changes (or reads) a board on behalf of another thread. Once a
+ * board is owned by a clock thread, commands are queued and applied by that
+ * thread at the start of its next clock tick, so that the clock thread is the
+ * only thread which ever changes the board.
+ * 
+ * @author djp
+ * 
+ * @param <T>
+ *            --- the type of the command's result.
+ */
+public interface Command<T> {
+	public T apply(Board board) throws IOException;
+}
@@ -0,0 +1,198 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.game;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The command queue holds the commands submitted to a board by other threads,
+ * until the board's owner applies them. It's a bounded ring buffer, which any
+ * number of threads can add to without locking, but which only the owner
+ * takes from. Each slot has a sequence number, which tells an adding thread
+ * whether the slot is free and the owner whether the slot is full. If the
+ * queue is full, adding threads wait for the owner to catch up.
+ * 
+ * Should the owner die (e.g. because a clock tick threw an exception), the
+ * threads waiting for their commands apply what's left in the queue
+ * themselves, holding the board's lock, rather than waiting forever.
+ * 
+ * @author djp
+ * 
+ */
+final class CommandQueue {
+	/**
+	 * A command which has been submitted, but not necessarily applied yet.
+	 * The submitting thread waits for it to be applied.
+	 */
+	static final class Pending<T> {
+		private final Command<T> command;
+		private final Thread waiter = Thread.currentThread();
+		private volatile boolean done;
+		private T result;
+		private Throwable failure;
+		
+		Pending(Command<T> command) {
+			this.command = command;
+		}
+		
+		void apply(Board board) {
+			try {
+				result = command.apply(board);
+			} catch(IOException e) {
+				failure = e;
+			} catch(RuntimeException e) {
+				failure = e;
+			} catch(Error e) {
+				failure = e;
+			}
+			done = true;
+			LockSupport.unpark(waiter);
+		}
+		
+		T result() throws IOException {
+			if(failure instanceof IOException) {
+				throw (IOException) failure;
+			} else if(failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if(failure instanceof Error) {
+				throw (Error) failure;
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * How often (in ns) a waiting thread checks that the owner is still
+	 * alive.
+	 */
+	private static final long OWNER_CHECK_PERIOD = 100000000L;
+	
+	private final int mask;
+	private final AtomicReferenceArray<Pending<?>> slots;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private long head; // only used by the owner
+	
+	/**
+	 * Construct a queue with a given capacity, which must be a power of two.
+	 * 
+	 * @param capacity
+	 */
+	CommandQueue(int capacity) {
+		if(Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two.");
+		}
+		this.mask = capacity - 1;
+		this.slots = new AtomicReferenceArray<Pending<?>>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		for(int i=0;i!=capacity;++i) {
+			sequences.set(i, i);
+		}
+	}
+	
+	/**
+	 * Add a command to the queue. This can be called by any thread.
+	 * 
+	 * @param pending
+	 */
+	void add(Pending<?> pending) {
+		while(1 == 1) {
+			long position = tail.get();
+			int i = (int) (position & mask);
+			long available = sequences.get(i) - position;
+			if(available == 0) {
+				if(tail.compareAndSet(position, position + 1)) {
+					slots.set(i, pending);
+					sequences.set(i, position + 1); // publish
+					return;
+				}
+			} else if(available < 0) {
+				Thread.yield(); // the queue is full
+			}
+		}
+	}
+	
+	/**
+	 * Wait for a command in the queue to be applied by a given owner. If the
+	 * owner has died, then the commands left in the queue are applied by this
+	 * thread instead.
+	 * 
+	 * @param pending
+	 * @param board
+	 * @param owner
+	 * @param timeout
+	 *            --- longest time to wait (in ms), or 0 to wait forever.
+	 * @return the result of the command.
+	 * @throws IOException
+	 * @throws TimeoutException
+	 *             if the command wasn't applied in time (though it may still
+	 *             be applied later).
+	 */
+	<T> T await(Pending<T> pending, Board board, Thread owner, long timeout)
+			throws IOException, TimeoutException {
+		long deadline = System.nanoTime() + (timeout * 1000000L);
+		while(!pending.done) {
+			if(!owner.isAlive()) {
+				// NOTE: the owner's death means nothing else is draining.
+				synchronized(board) {
+					drain(board);
+				}
+				continue;
+			}
+			long wait = OWNER_CHECK_PERIOD;
+			if(timeout > 0) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0) {
+					throw new TimeoutException();
+				}
+				wait = Math.min(wait, remaining);
+			}
+			LockSupport.parkNanos(pending, wait);
+		}
+		return pending.result();
+	}
+	
+	/**
+	 * Apply every command in the queue. This must only be called by the
+	 * owner, or once the owner has died, whilst holding the board's lock.
+	 * 
+	 * @param board
+	 * @return the number of commands applied.
+	 */
+	int drain(Board board) {
+		int n = 0;
+		while(1 == 1) {
+			int i = (int) (head & mask);
+			if(sequences.get(i) != head + 1) {
+				return n; // empty
+			}
+			Pending<?> pending = slots.get(i);
+			slots.set(i, null);
+			sequences.set(i, head + mask + 1); // free the slot
+			head++;
+			pending.apply(board);
+			n++;
+		}
+	}
+}
@@ -17,19 +17,14 @@
 
 package pacman.game;
 
-import java.awt.Graphics;
-import java.awt.Image;
 import java.io.*;
 
-import pacman.ui.Board;
-
-import static pacman.ui.BoardCanvas.*;
-
 public final class Disappear extends Character {
 	private int state;
 	
 	public Disappear(int realX, int realY, int state) {
 		super(realX, realY);		
+		this.state = state;
 	}
 	
 	public int state() {
@@ -53,24 +48,8 @@ public final class Disappear extends Character {
 	
 	public void toOutputStream(DataOutputStream dout) throws IOException {
 		dout.writeByte(Character.DISAPPEAR);
-		dout.writeShort(realX);
-		dout.writeShort(realY);
+		dout.writeInt(realX);
+		dout.writeInt(realY);
 		dout.writeByte(state);		
 	}
-	
-	public void draw(Graphics g) {
-		g.drawImage(DISCONNECTS[state], realX, realY,
-				null, null);
-	}				
-
-	private static final Image[] DISCONNECTS = {
-		loadImage("disconnect1.png"),
-		loadImage("disconnect1.png"),
-		loadImage("disconnect2.png"),
-		loadImage("disconnect2.png"),
-		loadImage("disconnect3.png"),
-		loadImage("disconnect3.png"),
-		loadImage("disconnect4.png"),
-		loadImage("disconnect4.png")
-	};		
 }
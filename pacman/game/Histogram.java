@@ -0,0 +1,128 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.game;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram records the distribution of a series of non-negative values,
+ * such as tick durations or frame sizes. Recording a value is lock-free and
+ * allocates nothing, so that it can be done on the hot path by any number of
+ * threads at once.
+ * 
+ * Values are counted in buckets on a log-linear scale: each power of two is
+ * split into 8 equal buckets, so any value is accurate to within 12.5%.
+ * Values less than 8 are counted exactly.
+ * 
+ * @author djp
+ * 
+ */
+public final class Histogram {
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Record a value. Negative values are recorded as zero.
+	 * 
+	 * @param value
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long m;
+		while((m = max.get()) < value && !max.compareAndSet(m, value)) {
+			// retry
+		}
+	}
+	
+	public long count() {
+		return count.get();
+	}
+	
+	public long sum() {
+		return sum.get();
+	}
+	
+	public long max() {
+		return max.get();
+	}
+	
+	/**
+	 * Estimate a given quantile of the values recorded so far. Since values
+	 * may be recorded at the same time, this is only approximate.
+	 * 
+	 * @param q
+	 *            --- between 0 and 1.
+	 * @return the upper bound of the bucket containing the quantile, or zero
+	 *         if nothing has been recorded.
+	 */
+	public long quantile(double q) {
+		long total = 0;
+		for(int i=0;i!=BUCKETS;++i) {
+			total += counts.get(i);
+		}
+		long rank = (long) Math.ceil(q * total);
+		long seen = 0;
+		for(int i=0;i!=BUCKETS;++i) {
+			seen += counts.get(i);
+			if(seen > 0 && seen >= rank) {
+				return Math.min(lowerBound(i + 1) - 1, max());
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Determine the bucket for a given value.
+	 */
+	private static int index(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+	
+	/**
+	 * Determine the smallest value counted in a given bucket.
+	 */
+	private static long lowerBound(int index) {
+		if(index < SUB_BUCKETS) {
+			return index;
+		}
+		int exp = (index >> SUB_BITS) + SUB_BITS - 1;
+		if(exp > 62) {
+			return Long.MAX_VALUE;
+		}
+		int sub = index & (SUB_BUCKETS - 1);
+		return (1L << exp) + ((long) sub << (exp - SUB_BITS));
+	}
+}
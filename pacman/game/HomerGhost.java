@@ -18,14 +18,8 @@
 package pacman.game;
 
 import java.util.*;
-import java.awt.Graphics;
-import java.awt.Image;
 import java.io.*;
 
-import pacman.ui.Board;
-
-import static pacman.ui.BoardCanvas.*;
-
 /**
  * Homer Ghosts are controlled by the computer. They look to see where the
  * nearest pacman is, and move towards it. If their route is blocked, then they
@@ -35,7 +29,6 @@ import static pacman.ui.BoardCanvas.*;
  * 
  */
 public final class HomerGhost extends MovingCharacter implements Ghost {
-	protected static final Random random = new Random(System.currentTimeMillis());
 	
 	public HomerGhost(int realX, int realY) {
 		super(realX,realY,MovingCharacter.STOPPED);
@@ -63,8 +56,8 @@ public final class HomerGhost extends MovingCharacter implements Ghost {
 		// really homing or going to move randomly. This is kinda important, as
 		// otherwise having multiple homing ghosts just means they all act in
 		// exactly the same manner.		
-		if(random.nextInt(10) > 7) {
-			queued = random.nextInt(4)+1; // don't stop
+		if(game.random(10) > 7) {
+			queued = game.random(4)+1; // don't stop
 			return;
 		}
 		
@@ -180,8 +173,8 @@ public final class HomerGhost extends MovingCharacter implements Ghost {
 	
 	public void toOutputStream(DataOutputStream dout) throws IOException {		
 		dout.writeByte(Character.HOMERGHOST);
-		dout.writeShort(realX);
-		dout.writeShort(realY);	
+		dout.writeInt(realX);
+		dout.writeInt(realY);	
 		dout.writeByte(direction);
 	}
 	
@@ -200,26 +193,4 @@ public final class HomerGhost extends MovingCharacter implements Ghost {
 		r.direction = dir;
 		return r;
 	}
-	
-	public void draw(Graphics g) {
-		switch(direction) {
-			case MovingCharacter.RIGHT:
-				g.drawImage(HGHOST_RIGHT, realX,realY, null, null);
-				break;
-			case MovingCharacter.UP:
-				g.drawImage(HGHOST_UP, realX,realY, null, null);
-				break;
-			case MovingCharacter.DOWN:
-				g.drawImage(HGHOST_DOWN, realX,realY, null, null);
-				break;
-			case MovingCharacter.LEFT:
-				g.drawImage(HGHOST_LEFT, realX,realY, null, null);
-				break;
-		}
-	}
-	
-	private static final Image HGHOST_RIGHT = loadImage("hghostright.png");
-	private static final Image HGHOST_LEFT = loadImage("hghostleft.png");
-	private static final Image HGHOST_UP = loadImage("hghostup.png");
-	private static final Image HGHOST_DOWN = loadImage("hghostdown.png");	
 }
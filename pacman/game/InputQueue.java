@@ -0,0 +1,96 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.game;
+
+import java.util.ArrayList;
+
+/**
+ * The input queue holds the directions requested by players, which have yet
+ * to be applied to the board. Inputs can be added by any thread, without
+ * holding the board's lock, and are applied by the clock thread at the start
+ * of the next clock tick. Inputs are coalesced, so that only the latest
+ * direction requested by each player is kept; however, the time at which the
+ * earliest of them arrived is kept, so that the latency of an input is never
+ * underestimated.
+ * 
+ * Note that the queue is not lock-free: it has its own lock, which is held
+ * only long enough to add an input or to swap the pending list for a spare
+ * one. Thus, a player's input never waits for a clock tick to finish, but
+ * may briefly wait for another input to be added.
+ * 
+ * @author djp
+ * 
+ */
+final class InputQueue {
+	static final class Input {
+		final int uid;
+		int direction;
+		final long timestamp; // in ns
+		
+		Input(int uid, int direction, long timestamp) {
+			this.uid = uid;
+			this.direction = direction;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	private ArrayList<Input> pending = new ArrayList<Input>();
+	private ArrayList<Input> spare = new ArrayList<Input>();
+	
+	/**
+	 * Add an input, replacing any input from the same player which hasn't
+	 * been applied yet.
+	 * 
+	 * @param uid
+	 * @param direction
+	 * @param timestamp
+	 *            --- time (in ns) at which the input arrived.
+	 */
+	synchronized void add(int uid, int direction, long timestamp) {
+		for(int i=0;i!=pending.size();++i) {
+			Input in = pending.get(i);
+			if(in.uid == uid) {
+				in.direction = direction;
+				return;
+			}
+		}
+		pending.add(new Input(uid, direction, timestamp));
+	}
+	
+	/**
+	 * Take every input added since the last drain. The list returned is only
+	 * valid until the next drain.
+	 * 
+	 * @return
+	 */
+	synchronized ArrayList<Input> drain() {
+		ArrayList<Input> drained = pending;
+		pending = spare;
+		pending.clear();
+		spare = drained;
+		return drained;
+	}
+	
+	/**
+	 * Discard every input which hasn't been applied yet.
+	 */
+	synchronized void clear() {
+		pending.clear();
+	}
+}
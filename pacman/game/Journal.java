@@ -0,0 +1,55 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package pacman.game;
+
+/**
+ * A journal receives a record of everything needed to replay a game. Since
+ * the game itself is deterministic, this consists only of the inputs received
+ * from players, and of keyframes. A keyframe captures the complete state of
+ * the board at a given tick, and is taken periodically, as well as whenever
+ * the board is changed other than by a clock tick or an input (e.g. when a
+ * player joins or leaves).
+ * 
+ * The journal is called whilst the board is locked, and hence must return as
+ * quickly as possible. Keyframes may be shared between several journals, and
+ * so must not be modified.
+ * 
+ * @author djp
+ * 
+ */
+public interface Journal {
+	/**
+	 * Record that an input was applied to the board after a given tick.
+	 * 
+	 * @param tick
+	 * @param uid
+	 *            --- the player who gave the input.
+	 * @param direction
+	 *            --- the direction requested by the player.
+	 */
+	public void input(long tick, int uid, int direction);
+	
+	/**
+	 * Record the state of the board after a given tick.
+	 * 
+	 * @param tick
+	 * @param keyframe
+	 *            --- as produced by Board.keyframe().
+	 */
+	public void keyframe(long tick, byte[] keyframe);
+}
@@ -0,0 +1,122 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package pacman.game;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A mapped bitmap holds its bits outside of the Java heap, in a memory-mapped
+ * or direct buffer of words, where tile (x,y) is given by bit (x + y*width).
+ * Since the buffer is not on the heap, the garbage collector never needs to
+ * scan it. Furthermore, when the buffer is a read-only mapping of a compiled
+ * board file, every process which maps the same file shares the same physical
+ * pages.
+ * 
+ * @author djp
+ * 
+ */
+public final class MappedBitmap implements Bitmap {
+	private final int width;
+	private final int height;
+	private final ByteBuffer buffer;
+	private final int offset;
+	private final int nwords;
+	
+	/**
+	 * Construct a bitmap over a range of words in a given buffer. The words
+	 * are stored in the buffer's byte order.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param buffer
+	 * @param offset
+	 *            --- the offset (in bytes) of the first word
+	 * @param nwords
+	 */
+	public MappedBitmap(int width, int height, ByteBuffer buffer, int offset, int nwords) {
+		this.width = width;
+		this.height = height;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.nwords = nwords;
+	}
+	
+	public int width() {
+		return width;
+	}
+	
+	public int height() {
+		return height;
+	}
+	
+	public boolean get(int x, int y) {
+		if(x < 0 || y < 0 || x >= width || y >= height) {
+			return false;
+		}
+		long index = x + ((long) y * width);
+		return (word(index >> 6) & (1L << index)) != 0;
+	}
+	
+	public void set(int x, int y) {
+		long index = index(x, y);
+		int position = offset + (int) ((index >> 6) * 8);
+		buffer.putLong(position, buffer.getLong(position) | (1L << index));
+	}
+	
+	public void clear(int x, int y) {
+		long index = index(x, y);
+		int position = offset + (int) ((index >> 6) * 8);
+		buffer.putLong(position, buffer.getLong(position) & ~(1L << index));
+	}
+	
+	public long cardinality() {
+		long count = 0;
+		for(int i=0;i!=nwords;++i) {
+			count += Long.bitCount(word(i));
+		}
+		return count;
+	}
+	
+	/**
+	 * Nothing is evicted, since the operating system already pages a mapped
+	 * buffer in and out as necessary.
+	 */
+	public int evict(List<int[]> tiles, int radius) {
+		return 0;
+	}
+	
+	public long[] toWords() {
+		long[] words = new long[nwords];
+		for(int i=0;i!=nwords;++i) {
+			words[i] = word(i);
+		}
+		return words;
+	}
+	
+	private long word(long i) {
+		return buffer.getLong(offset + (int) (i * 8));
+	}
+	
+	private long index(int x, int y) {
+		if(x < 0 || y < 0 || x >= width || y >= height) {
+			throw new IndexOutOfBoundsException("Invalid tile");
+		}
+		return x + ((long) y * width);
+	}
+}
@@ -17,8 +17,6 @@
 
 package pacman.game;
 
-import pacman.ui.Board;
-
 /**
  * The moving character class represents characters on the pacman board which
  * move. Moving characters have a direction of movement, and a speed at which
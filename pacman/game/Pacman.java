@@ -18,15 +18,10 @@
 
 package pacman.game;
 
-import java.awt.*;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
-import pacman.ui.Board;
-
-import static pacman.ui.BoardCanvas.*;
-
 public final class Pacman extends MovingCharacter {	
 	private final int uid;
 	private int score;
@@ -58,6 +53,16 @@ public final class Pacman extends MovingCharacter {
 		return score;
 	}
 
+	/**
+	 * Get this players state, where 0 means alive and anything else means
+	 * dead or dying.
+	 * 
+	 * @return
+	 */
+	public int state() {
+		return state;
+	}
+
 	/**
 	 * Get this players remaining lives
 	 * @return
@@ -127,13 +132,13 @@ public final class Pacman extends MovingCharacter {
 	
 	public void toOutputStream(DataOutputStream dout) throws IOException {		
 		dout.writeByte(Character.PACMAN);
-		dout.writeShort(realX);
-		dout.writeShort(realY);
-		dout.writeByte(uid);
+		dout.writeInt(realX);
+		dout.writeInt(realY);
+		dout.writeInt(uid);
 		dout.writeByte(direction);
 		dout.writeByte(state);
 		dout.writeByte(lives);
-		dout.writeShort(score);
+		dout.writeInt(score);
 	}
 		
 	/**
@@ -147,135 +152,13 @@ public final class Pacman extends MovingCharacter {
 	 */
 	public static Pacman fromInputStream(int rx, int ry,
 			DataInputStream din) throws IOException {
-		int uid = din.readByte();
+		int uid = din.readInt();
 		int dir = din.readByte();
 		int state = din.readByte();
 		int lives = din.readByte();
-		int score = din.readShort();
+		int score = din.readInt();
 		Pacman p = new Pacman(rx, ry, dir, uid, lives, score);		
 		p.state = state;		
 		return p;
 	}
-	
-	/**
-	 * Draw the pacman to the screen
-	 */
-	public void draw(Graphics g) {
-		if(state == 0) {
-			switch(direction) {
-			case MovingCharacter.UP:
-				g.drawImage(PACMAN2_UP[Math.abs(realY % 30)/ 4], realX,realY, null, null);
-				break;
-			case MovingCharacter.DOWN:				
-				g.drawImage(PACMAN2_DOWN[Math.abs(realY % 30)/ 4], realX,realY, null, null);
-				break;
-			case MovingCharacter.RIGHT:
-				g.drawImage(PACMAN2_RIGHT[Math.abs(realX % 30)/ 4], realX,realY, null, null);
-				break;
-			case MovingCharacter.LEFT:					
-				g.drawImage(PACMAN2_LEFT[Math.abs(realX % 30)/ 4], realX,realY, null, null);
-				break;
-			default:
-				// stopped
-				g.drawImage(PACMAN2_DYING[0], realX,realY, null, null);
-			}
-		} else if(state > 19) {
-			// do nothing
-		} else {
-			g.drawImage(PACMAN2_DYING[(state-1)/3],realX,realY,null,null);
-		}
-	}
-	
-	/**
-	 * Draw the pacman that is yours to the screen different so you know which one is you
-	 */
-	public void drawOwn(Graphics g) {
-		if(state == 0) {
-			switch(direction) {
-			case MovingCharacter.UP:
-				g.drawImage(PACMAN_UP[Math.abs(realY % 30)/ 4], realX,realY, null, null);
-				break;
-			case MovingCharacter.DOWN:				
-				g.drawImage(PACMAN_DOWN[Math.abs(realY % 30)/ 4], realX,realY, null, null);
-				break;
-			case MovingCharacter.RIGHT:
-				g.drawImage(PACMAN_RIGHT[Math.abs(realX % 30)/ 4], realX,realY, null, null);
-				break;
-			case MovingCharacter.LEFT:					
-				g.drawImage(PACMAN_LEFT[Math.abs(realX % 30)/ 4], realX,realY, null, null);
-				break;
-			default:
-				// stopped
-				g.drawImage(PACMAN_DYING[0], realX,realY, null, null);
-			}
-		} else if(state > 19) {
-			// do nothing
-		} else {
-			g.drawImage(PACMAN_DYING[(state-1)/3],realX,realY,null,null);
-		}
-	}
-	
-	// following is public so can be access from BoardCanvas
-	public static final Image[] PACMAN_RIGHT = { loadImage("pacman2.png"),
-			loadImage("pacman2.png"), loadImage("pacman3.png"),
-			loadImage("pacman3.png"), loadImage("pacman4.png"),
-			loadImage("pacman4.png"), loadImage("pacman3.png"),
-			loadImage("pacman3.png") };
-
-	private static final Image[] PACMAN_LEFT = {rotate(PACMAN_RIGHT[0], 180),
-		rotate(PACMAN_RIGHT[1], 180), rotate(PACMAN_RIGHT[2], 180),
-		rotate(PACMAN_RIGHT[3], 180), rotate(PACMAN_RIGHT[4], 180),
-		rotate(PACMAN_RIGHT[5], 180), rotate(PACMAN_RIGHT[6], 180)};
-	
-	private static final Image[] PACMAN_UP = {rotate(PACMAN_RIGHT[0], -90),
-		rotate(PACMAN_RIGHT[1], -90), rotate(PACMAN_RIGHT[2], -90),
-		rotate(PACMAN_RIGHT[3], -90), rotate(PACMAN_RIGHT[4], -90),
-		rotate(PACMAN_RIGHT[5], -90), rotate(PACMAN_RIGHT[6], -90)};
-	
-	private static final Image[] PACMAN_DOWN = {rotate(PACMAN_RIGHT[0], 90),
-		rotate(PACMAN_RIGHT[1], 90), rotate(PACMAN_RIGHT[2], 90),
-		rotate(PACMAN_RIGHT[3], 90), rotate(PACMAN_RIGHT[4], 90),
-		rotate(PACMAN_RIGHT[5], 90), rotate(PACMAN_RIGHT[6], 90)};
-	
-	private static final Image[] PACMAN_DYING = {
-		loadImage("pacman1.png"),
-		loadImage("pacman2.png"),
-		loadImage("pacman3.png"),
-		loadImage("pacman4.png"),
-		loadImage("pacman5.png"),
-		loadImage("pacman6.png"),
-		loadImage("pacman7.png"),
-	};
-	
-	
-public static final Image[] PACMAN2_RIGHT = { loadImage("pacman22.png"),
-		loadImage("pacman22.png"), loadImage("pacman23.png"),
-		loadImage("pacman23.png"), loadImage("pacman24.png"),
-		loadImage("pacman24.png"), loadImage("pacman23.png"),
-		loadImage("pacman23.png") };
-
-private static final Image[] PACMAN2_LEFT = {rotate(PACMAN2_RIGHT[0], 180),
-	rotate(PACMAN2_RIGHT[1], 180), rotate(PACMAN2_RIGHT[2], 180),
-	rotate(PACMAN2_RIGHT[3], 180), rotate(PACMAN2_RIGHT[4], 180),
-	rotate(PACMAN2_RIGHT[5], 180), rotate(PACMAN2_RIGHT[6], 180)};
-
-private static final Image[] PACMAN2_UP = {rotate(PACMAN2_RIGHT[0], -90),
-	rotate(PACMAN2_RIGHT[1], -90), rotate(PACMAN2_RIGHT[2], -90),
-	rotate(PACMAN2_RIGHT[3], -90), rotate(PACMAN2_RIGHT[4], -90),
-	rotate(PACMAN2_RIGHT[5], -90), rotate(PACMAN2_RIGHT[6], -90)};
-
-private static final Image[] PACMAN2_DOWN = {rotate(PACMAN2_RIGHT[0], 90),
-	rotate(PACMAN2_RIGHT[1], 90), rotate(PACMAN2_RIGHT[2], 90),
-	rotate(PACMAN2_RIGHT[3], 90), rotate(PACMAN2_RIGHT[4], 90),
-	rotate(PACMAN2_RIGHT[5], 90), rotate(PACMAN2_RIGHT[6], 90)};
-
-private static final Image[] PACMAN2_DYING = {
-	loadImage("pacman21.png"),
-	loadImage("pacman22.png"),
-	loadImage("pacman23.png"),
-	loadImage("pacman24.png"),
-	loadImage("pacman25.png"),
-	loadImage("pacman26.png"),
-	loadImage("pacman27.png"),
-};
 }
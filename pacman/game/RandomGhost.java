@@ -17,16 +17,9 @@
 
 package pacman.game;
 
-import java.awt.Graphics;
-import java.awt.Image;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Random;
-
-import pacman.ui.Board;
-
-import static pacman.ui.BoardCanvas.*;
 
 /**
  * Random Ghosts are controlled by the computer. They basically just walk in a
@@ -36,7 +29,6 @@ import static pacman.ui.BoardCanvas.*;
  * 
  */
 public final class RandomGhost extends MovingCharacter implements Ghost {
-	protected static final Random random = new Random(System.currentTimeMillis());
 	
 	public RandomGhost(int realX, int realY) {
 		super(realX,realY,MovingCharacter.STOPPED);		
@@ -58,7 +50,7 @@ public final class RandomGhost extends MovingCharacter implements Ghost {
 			}
 		}
 		
-		queued = random.nextInt(4)+1; // don't stop
+		queued = game.random(4)+1; // don't stop
 	}
 		
 	public int speed() {
@@ -67,8 +59,8 @@ public final class RandomGhost extends MovingCharacter implements Ghost {
 	
 	public void toOutputStream(DataOutputStream dout) throws IOException {		
 		dout.writeByte(Character.RANDOMGHOST);
-		dout.writeShort(realX);
-		dout.writeShort(realY);
+		dout.writeInt(realX);
+		dout.writeInt(realY);
 		dout.writeByte(direction);
 	}	
 	
@@ -79,26 +71,4 @@ public final class RandomGhost extends MovingCharacter implements Ghost {
 		r.direction = dir;
 		return r;		
 	}
-	
-	public void draw(Graphics g) {
-		switch(direction) {
-			case MovingCharacter.RIGHT:
-				g.drawImage(RGHOST_RIGHT, realX,realY, null, null);
-				break;
-			case MovingCharacter.UP:
-				g.drawImage(RGHOST_UP, realX,realY, null, null);
-				break;
-			case MovingCharacter.DOWN:
-				g.drawImage(RGHOST_DOWN, realX,realY, null, null);
-				break;
-			case MovingCharacter.LEFT:
-				g.drawImage(RGHOST_LEFT, realX,realY, null, null);
-				break;
-		}
-	}
-	
-	private static final Image RGHOST_RIGHT = loadImage("rghostright.png");
-	private static final Image RGHOST_LEFT = loadImage("rghostleft.png");
-	private static final Image RGHOST_UP = loadImage("rghostup.png");
-	private static final Image RGHOST_DOWN = loadImage("rghostdown.png");	
 }
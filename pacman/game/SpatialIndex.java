@@ -0,0 +1,209 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.game;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A spatial index captures the state of a board at the end of a clock tick,
+ * divided into square cells of tiles, so that the part of the board around a
+ * given player can be encoded without looking at the rest of it. It's used to
+ * send each player a window onto the board, which covers the cells within a
+ * given radius of their pacman, rather than the whole board.
+ * 
+ * A window is encoded just like the state produced by Board.toByteArray(),
+ * except that the state byte is flagged with WINDOW, and is followed by the
+ * bounds of the window (in tiles). Only the pills within the window are
+ * given. The characters are given for a halo, which extends the window by one
+ * cell on each side, and whose bounds follow the pills; thus, a character
+ * which has just left the window is still seen. When a window is read, the
+ * characters on tiles within the halo are replaced, whilst the rest of the
+ * board is left as it was (see Board.readWindow()).
+ * 
+ * A spatial index is immutable, and so can be used by any thread.
+ * 
+ * @author djp
+ * 
+ */
+public final class SpatialIndex {
+	/**
+	 * Flags the state byte of a window.
+	 */
+	public static final int WINDOW = 0x80;
+	
+	/**
+	 * The width (and height) of a cell, in tiles.
+	 */
+	public static final int CELL = 8;
+	
+	private final int state;
+	private final int width;
+	private final int height;
+	private final int radius;
+	private final byte[] snapshot; // holds the pills
+	private final int cellsWide;
+	private final int cellsHigh;
+	private final byte[][] cells; // encoded characters on each cell, or null
+	private final int[] counts; // number of characters on each cell
+	private final int[] players; // uid, x, y of each pacman
+	
+	/**
+	 * Construct a spatial index of a given board. This must be called by a
+	 * thread holding the board's lock. The pills aren't copied, but read from
+	 * the snapshot of the board taken at the same time, which holds them as a
+	 * bit per tile starting from its second byte.
+	 * 
+	 * @param board
+	 * @param snapshot
+	 *            --- the board's state, as produced by Board.toByteArray().
+	 * @param characters
+	 *            --- the board's characters.
+	 * @param radius
+	 *            --- radius of each window (in tiles).
+	 * @throws IOException
+	 */
+	SpatialIndex(Board board, byte[] snapshot,
+			Iterable<Character> characters, int radius) throws IOException {
+		this.state = snapshot[0];
+		this.width = board.width();
+		this.height = board.height();
+		this.radius = radius;
+		this.snapshot = snapshot;
+		this.cellsWide = (width + CELL - 1) / CELL;
+		this.cellsHigh = (height + CELL - 1) / CELL;
+		ByteArrayOutputStream[] bouts = new ByteArrayOutputStream[cellsWide * cellsHigh];
+		this.counts = new int[bouts.length];
+		int nplayers = 0;
+		for(Character c : characters) {
+			int x = tileX(c, width);
+			int y = tileY(c, height);
+			int cell = (x / CELL) + (y / CELL) * cellsWide;
+			if(bouts[cell] == null) {
+				bouts[cell] = new ByteArrayOutputStream();
+			}
+			c.toOutputStream(new DataOutputStream(bouts[cell]));
+			counts[cell]++;
+			if(c instanceof Pacman) {
+				nplayers++;
+			}
+		}
+		this.cells = new byte[bouts.length][];
+		for(int i=0;i!=bouts.length;++i) {
+			if(bouts[i] != null) {
+				cells[i] = bouts[i].toByteArray();
+			}
+		}
+		this.players = new int[nplayers * 3];
+		int i = 0;
+		for(Character c : characters) {
+			if(c instanceof Pacman) {
+				players[i++] = ((Pacman) c).uid();
+				players[i++] = tileX(c, width);
+				players[i++] = tileY(c, height);
+			}
+		}
+	}
+	
+	/**
+	 * Encode the window around a given player's pacman.
+	 * 
+	 * @param uid
+	 * @return the window, or null if the player has no pacman.
+	 * @throws IOException
+	 */
+	public byte[] window(int uid) throws IOException {
+		int p = 0;
+		while(p != players.length && players[p] != uid) {
+			p += 3;
+		}
+		if(p == players.length) {
+			return null;
+		}
+		int cx0 = Math.max(0, (players[p+1] - radius) / CELL);
+		int cy0 = Math.max(0, (players[p+2] - radius) / CELL);
+		int cx1 = Math.min(cellsWide - 1, (players[p+1] + radius) / CELL);
+		int cy1 = Math.min(cellsHigh - 1, (players[p+2] + radius) / CELL);
+		int x0 = cx0 * CELL;
+		int y0 = cy0 * CELL;
+		int x1 = Math.min(width, (cx1 + 1) * CELL);
+		int y1 = Math.min(height, (cy1 + 1) * CELL);
+		// The halo extends the window by one cell
+		int hx0 = Math.max(0, cx0 - 1);
+		int hy0 = Math.max(0, cy0 - 1);
+		int hx1 = Math.min(cellsWide - 1, cx1 + 1);
+		int hy1 = Math.min(cellsHigh - 1, cy1 + 1);
+		
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		dout.writeByte(state | WINDOW);
+		dout.writeInt(x0);
+		dout.writeInt(y0);
+		dout.writeInt(x1);
+		dout.writeInt(y1);
+		
+		// First, write the pills within the window, row by row
+		byte[] row = new byte[(x1 - x0 + 7) / 8];
+		for(int y=y0;y!=y1;++y) {
+			Arrays.fill(row, (byte) 0);
+			for(int x=x0;x!=x1;++x) {
+				long bit = x + (long) y * width;
+				if(((snapshot[1 + (int) (bit >> 3)] >> (bit & 7)) & 1) != 0) {
+					row[(x - x0) >> 3] |= 1 << ((x - x0) & 7);
+				}
+			}
+			dout.write(row);
+		}
+		
+		// Second, write the characters within the halo
+		dout.writeInt(hx0 * CELL);
+		dout.writeInt(hy0 * CELL);
+		dout.writeInt(Math.min(width, (hx1 + 1) * CELL));
+		dout.writeInt(Math.min(height, (hy1 + 1) * CELL));
+		int ncharacters = 0;
+		for(int cy=hy0;cy<=hy1;++cy) {
+			for(int cx=hx0;cx<=hx1;++cx) {
+				ncharacters += counts[cx + cy * cellsWide];
+			}
+		}
+		dout.writeInt(ncharacters);
+		for(int cy=hy0;cy<=hy1;++cy) {
+			for(int cx=hx0;cx<=hx1;++cx) {
+				byte[] cell = cells[cx + cy * cellsWide];
+				if(cell != null) {
+					dout.write(cell);
+				}
+			}
+		}
+		dout.flush();
+		return bout.toByteArray();
+	}
+	
+	/**
+	 * Get the x coordinate of the tile a character is (mostly) on, within a
+	 * board of a given width.
+	 */
+	static int tileX(Character c, int width) {
+		return Math.min(width - 1, Math.max(0, (c.realX() + 15) / 30));
+	}
+	
+	static int tileY(Character c, int height) {
+		return Math.min(height - 1, Math.max(0, (c.realY() + 15) / 30));
+	}
+}
@@ -0,0 +1,58 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.game;
+
+import jdk.jfr.*;
+
+/**
+ * A flight recorder event emitted for each clock tick of an active game. Its
+ * duration is the time spent updating the board, not including the time
+ * spent waiting for the board's lock.
+ * 
+ * @author djp
+ * 
+ */
+@Name("pacman.Tick")
+@Label("Clock Tick")
+@Category({ "Pacman", "Game" })
+@Description("Update of the game state by one clock tick")
+@StackTrace(false)
+final class TickEvent extends Event {
+	@Label("Tick")
+	long tick;
+	
+	@Label("Characters")
+	@Description("Number of characters on the board")
+	int characters;
+	
+	@Label("Collisions")
+	@Description("Number of collisions between a pacman and a ghost during the tick")
+	int collisions;
+	
+	@Label("Pills Remaining")
+	long pills;
+	
+	@Label("Commands")
+	@Description("Number of commands applied at the start of the tick")
+	int commands;
+	
+	@Label("Inputs")
+	@Description("Number of inputs applied at the start of the tick")
+	int inputs;
+}
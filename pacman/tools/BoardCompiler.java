@@ -0,0 +1,71 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.tools;
+
+import java.io.IOException;
+
+import pacman.game.Board;
+import pacman.game.BoardLoader;
+
+/**
+ * The board compiler converts text boards into compiled boards, which can be
+ * loaded much faster. Each file "name.txt" is compiled into "name.pmb", and the
+ * content hash of each board is printed out.
+ * 
+ * @author djp
+ * 
+ */
+public class BoardCompiler {
+	public static void main(String[] args) {
+		if(args.length == 0) {
+			System.out.println("Usage: java pacman.tools.BoardCompiler <board.txt>...");
+			System.exit(1);
+		}
+		try {
+			for(String input : args) {
+				String output = input.endsWith(".txt") ? input.substring(0,
+						input.length() - 4) + ".pmb" : input + ".pmb";
+				long start = System.currentTimeMillis();
+				Board board = BoardLoader.load(input, 0, 0);
+				BoardLoader.compile(board, output);
+				long time = System.currentTimeMillis() - start;
+				System.out.println(output + " (" + board.width() + " x "
+						+ board.height() + ", " + time + "ms) "
+						+ toHexString(board.hash()));
+			}
+		} catch(IOException e) {
+			System.err.println("I/O error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Convert a hash into a string of hex digits.
+	 * 
+	 * @param hash
+	 * @return
+	 */
+	public static String toHexString(byte[] hash) {
+		StringBuilder sb = new StringBuilder();
+		for(byte b : hash) {
+			sb.append(String.format("%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+}
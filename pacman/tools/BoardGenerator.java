@@ -0,0 +1,327 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+package pacman.tools;
+
+import java.io.*;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * The board generator creates random boards of any size, which are written in
+ * the usual text format. This is useful for measuring how the game scales
+ * with the size of its board.
+ * 
+ * Boards are generated as a maze of square cells, separated by walls one tile
+ * thick, using a randomised depth-first search. This guarantees that every
+ * open tile can be reached from every other. Extra loops are then added by
+ * knocking down a proportion of the remaining walls between cells, which
+ * determines how dense the walls are. Finally, the portals and pills are
+ * placed on randomly chosen open tiles. The same seed always generates the
+ * same board.
+ * 
+ * @author djp
+ * 
+ */
+public class BoardGenerator {
+	private final int width;
+	private final int height;
+	private final int corridor;
+	private final Random random;
+	
+	/**
+	 * The number of cells across and down the maze.
+	 */
+	private final int cellsWide;
+	private final int cellsHigh;
+	
+	/**
+	 * The tiles of the board: walls are set in the first, and pills in the
+	 * second. Tiles are indexed by (x + y*width).
+	 */
+	private final BitSet walls;
+	private final BitSet pills = new BitSet();
+	private final BitSet portals = new BitSet();
+	private final byte[] kinds;
+	
+	/**
+	 * Construct a generator for boards of a given size.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param corridor
+	 *            --- width of each corridor (in tiles)
+	 * @param seed
+	 */
+	public BoardGenerator(int width, int height, int corridor, long seed) {
+		if(corridor < 1) {
+			throw new IllegalArgumentException("Corridor width must be at least 1.");
+		} else if(width < corridor + 2 || height < corridor + 2) {
+			throw new IllegalArgumentException("Board must be at least "
+					+ (corridor + 2) + " x " + (corridor + 2) + ".");
+		} else if((long) width * height > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Board is too large.");
+		}
+		this.width = width;
+		this.height = height;
+		this.corridor = corridor;
+		this.random = new Random(seed);
+		this.cellsWide = (width - 1) / (corridor + 1);
+		this.cellsHigh = (height - 1) / (corridor + 1);
+		this.walls = new BitSet(width * height);
+		this.walls.set(0, width * height);
+		this.kinds = new byte[width * height];
+	}
+	
+	/**
+	 * Carve out the maze, such that every cell is connected to every other.
+	 * This uses a randomised depth-first search, with an explicit stack since
+	 * the maze may be very deep.
+	 */
+	public void carve() {
+		int ncells = cellsWide * cellsHigh;
+		BitSet visited = new BitSet(ncells);
+		int[] stack = new int[ncells];
+		int[] neighbours = new int[4];
+		int top = 0;
+		stack[top++] = 0;
+		visited.set(0);
+		open(0, 0);
+		while(top > 0) {
+			int cell = stack[top - 1];
+			int cx = cell % cellsWide;
+			int cy = cell / cellsWide;
+			int n = 0;
+			if(cy > 0 && !visited.get(cell - cellsWide)) { neighbours[n++] = cell - cellsWide; }
+			if(cy+1 < cellsHigh && !visited.get(cell + cellsWide)) { neighbours[n++] = cell + cellsWide; }
+			if(cx > 0 && !visited.get(cell - 1)) { neighbours[n++] = cell - 1; }
+			if(cx+1 < cellsWide && !visited.get(cell + 1)) { neighbours[n++] = cell + 1; }
+			if(n == 0) {
+				top--; // dead end, so backtrack
+				continue;
+			}
+			int next = neighbours[random.nextInt(n)];
+			int nx = next % cellsWide;
+			int ny = next / cellsWide;
+			join(cx, cy, nx, ny);
+			open(nx, ny);
+			visited.set(next);
+			stack[top++] = next;
+		}
+	}
+	
+	/**
+	 * Add loops to the maze by knocking down some of the walls which remain
+	 * between adjacent cells.
+	 * 
+	 * @param fraction
+	 *            --- the proportion of remaining walls to knock down (between
+	 *            0 and 1).
+	 */
+	public void addLoops(double fraction) {
+		for(int cy=0;cy!=cellsHigh;++cy) {
+			for(int cx=0;cx!=cellsWide;++cx) {
+				if(cx+1 < cellsWide && random.nextDouble() < fraction) {
+					join(cx, cy, cx + 1, cy);
+				}
+				if(cy+1 < cellsHigh && random.nextDouble() < fraction) {
+					join(cx, cy, cx, cy + 1);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Place a given number of portals of a given kind ('X' or 'G') on
+	 * randomly chosen open tiles.
+	 * 
+	 * @param kind
+	 * @param count
+	 */
+	public void addPortals(char kind, int count) {
+		long free = (long) width * height - walls.cardinality() - portals.cardinality();
+		if(count > free) {
+			throw new IllegalArgumentException("Not enough room for " + count + " portals.");
+		}
+		while(count > 0) {
+			int index = random.nextInt(width * height);
+			if(!walls.get(index) && !portals.get(index)) {
+				portals.set(index);
+				kinds[index] = (byte) kind;
+				count--;
+			}
+		}
+	}
+	
+	/**
+	 * Place a given number of pills on randomly chosen open tiles, excluding
+	 * portals. Every tile is equally likely to be chosen.
+	 * 
+	 * @param count
+	 *            --- number of pills, or -1 to fill every open tile.
+	 */
+	public void addPills(int count) {
+		int ntiles = width * height;
+		int free = ntiles - walls.cardinality() - portals.cardinality();
+		if(count < 0) {
+			count = free;
+		} else if(count > free) {
+			throw new IllegalArgumentException("Not enough room for " + count + " pills.");
+		}
+		// Choose each free tile with probability (remaining / free), which
+		// picks exactly count tiles in a single pass.
+		for(int i=0;i!=ntiles && count > 0;++i) {
+			if(walls.get(i) || portals.get(i)) {
+				continue;
+			}
+			if(random.nextInt(free) < count) {
+				pills.set(i);
+				count--;
+			}
+			free--;
+		}
+	}
+	
+	/**
+	 * Write the generated board in the text format.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(OutputStream out) throws IOException {
+		byte[] line = new byte[width + 1];
+		line[width] = '\n';
+		for(int y=0;y!=height;++y) {
+			for(int x=0;x!=width;++x) {
+				int index = x + (y * width);
+				if(walls.get(index)) {
+					line[x] = 'W';
+				} else if(portals.get(index)) {
+					line[x] = kinds[index];
+				} else if(pills.get(index)) {
+					line[x] = 'P';
+				} else {
+					line[x] = ' ';
+				}
+			}
+			out.write(line);
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Open up the tiles of a given cell.
+	 */
+	private void open(int cx, int cy) {
+		int x = 1 + (cx * (corridor + 1));
+		int y = 1 + (cy * (corridor + 1));
+		clear(x, y, corridor, corridor);
+	}
+	
+	/**
+	 * Open up the wall between two adjacent cells.
+	 */
+	private void join(int cx, int cy, int nx, int ny) {
+		int x = 1 + (Math.min(cx, nx) * (corridor + 1));
+		int y = 1 + (Math.min(cy, ny) * (corridor + 1));
+		if(cx != nx) {
+			clear(x + corridor, y, 1, corridor);
+		} else {
+			clear(x, y + corridor, corridor, 1);
+		}
+	}
+	
+	private void clear(int x, int y, int w, int h) {
+		for(int j=0;j!=h;++j) {
+			int start = x + ((y + j) * width);
+			walls.clear(start, start + w);
+		}
+	}
+	
+	public static void main(String[] args) {
+		long seed = System.currentTimeMillis();
+		int corridor = 1;
+		double loops = 0.1;
+		int npills = -1;
+		int nPacPortals = 1;
+		int nGhostPortals = 1;
+		int[] size = new int[2];
+		int nsizes = 0;
+		String output = null;
+		
+		try {
+			for (int i = 0; i != args.length; ++i) {
+				String arg = args[i];
+				if(arg.equals("-seed")) {
+					seed = Long.parseLong(args[++i]);
+				} else if(arg.equals("-corridor")) {
+					corridor = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-loops")) {
+					loops = Double.parseDouble(args[++i]);
+				} else if(arg.equals("-pills")) {
+					npills = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-pacportals")) {
+					nPacPortals = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-ghostportals")) {
+					nGhostPortals = Integer.parseInt(args[++i]);
+				} else if(arg.startsWith("-")) {
+					usage();
+					System.exit(1);
+				} else if(nsizes < 2) {
+					size[nsizes++] = Integer.parseInt(arg);
+				} else {
+					output = arg;
+				}
+			}
+			if(output == null) {
+				usage();
+				System.exit(1);
+			}
+			
+			BoardGenerator generator = new BoardGenerator(size[0], size[1], corridor, seed);
+			generator.carve();
+			generator.addLoops(loops);
+			generator.addPortals('X', nPacPortals);
+			generator.addPortals('G', nGhostPortals);
+			generator.addPills(npills);
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+				generator.write(out);
+			}
+			System.out.println(output + " (" + size[0] + " x " + size[1] + ", seed " + seed + ")");
+		} catch(NumberFormatException e) {
+			usage();
+			System.exit(1);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} catch(IOException e) {
+			System.err.println("I/O error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	private static void usage() {
+		System.out.println("Usage: java pacman.tools.BoardGenerator <options> <width> <height> <board.txt>");
+		System.out.println("Options:");
+		System.out.println("  -seed <n>          Set the random seed (default is the current time)");
+		System.out.println("  -corridor <n>      Set the width of each corridor (default 1)");
+		System.out.println("  -loops <f>         Set the proportion of inner walls knocked down (default 0.1)");
+		System.out.println("  -pills <n>         Set the number of pills (default is every open tile)");
+		System.out.println("  -pacportals <n>    Set the number of pacman portals (default 1)");
+		System.out.println("  -ghostportals <n>  Set the number of ghost portals (default 1)");
+	}
+}
@@ -0,0 +1,440 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.tools;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import pacman.control.Protocol;
+import pacman.game.*;
+import pacman.game.Character;
+
+/**
+ * The load generator measures how a server copes with many clients. It opens
+ * a number of connections to a server, each of which behaves just like a
+ * slave: it decodes every frame it receives into its own copy of the board
+ * (although nothing is drawn), and drives its pacman by sending directions.
+ * Directions are either taken from a script or chosen at random from those
+ * which the pacman can take.
+ * 
+ * Once a second, the load generator reports the following:
+ * <ul>
+ * <li>The number of clients connected.</li>
+ * <li>The total rate at which the server is sending frames, and the average
+ * and minimum rate received by each client.</li>
+ * <li>The average number of bytes per second received by each client.</li>
+ * <li>The jitter in the time between frames arriving (median, 99th percentile
+ * and worst).</li>
+ * <li>The latency between sending a direction and receiving the first frame in
+ * which the pacman is moving in that direction (median, 90th and 99th
+ * percentile). Note this includes the time taken for the pacman to reach the
+ * next tile, since it can only turn there.</li>
+ * </ul>
+ * Connections can also be made as spectators (using -spectate), which send no
+ * directions; this is needed to load a relay.
+ * 
+ * Connections can be opened gradually (using -ramp), in which case the client
+ * count at which the server saturates is the point at which the frame rate per
+ * client starts to fall.
+ * 
+ * @author djp
+ * 
+ */
+public class LoadGenerator {
+	private static final int REPORT_PERIOD = 1000; // ms
+	
+	private final String host;
+	private final int port;
+	private final int inputPeriod;
+	private final String script;
+	private final boolean spectate;
+	private final Random random;
+	private final CopyOnWriteArrayList<Bot> bots = new CopyOnWriteArrayList<Bot>();
+	
+	/**
+	 * Construct a load generator for a given server.
+	 * 
+	 * @param host
+	 * @param port
+	 * @param inputPeriod
+	 *            --- time between directions sent by each client (in ms)
+	 * @param script
+	 *            --- directions for each client to send in turn, given as a
+	 *            string of U, D, L and R; or, null for random directions.
+	 * @param spectate
+	 *            --- whether to connect as spectators, rather than players.
+	 * @param seed
+	 */
+	public LoadGenerator(String host, int port, int inputPeriod, String script,
+			boolean spectate, long seed) {
+		this.host = host;
+		this.port = port;
+		this.inputPeriod = inputPeriod;
+		this.script = script;
+		this.spectate = spectate;
+		this.random = new Random(seed);
+	}
+	
+	/**
+	 * Open a new connection to the server.
+	 */
+	public void connect() {
+		Bot bot = new Bot(bots.size(), random.nextLong());
+		bots.add(bot);
+		bot.start();
+	}
+	
+	/**
+	 * A bot is a single connection to the server.
+	 */
+	private final class Bot extends Thread {
+		private final int index;
+		private final Random random;
+		private Board board;
+		private int uid;
+		private int next; // next direction in script
+		
+		// The following are reset at the end of each report period
+		private long frames;
+		private long bytes;
+		private final Samples gaps = new Samples();
+		private final Samples latencies = new Samples();
+		
+		// The direction awaiting confirmation (if any)
+		private int pending = MovingCharacter.STOPPED;
+		private long pendingSent;
+		
+		public Bot(int index, long seed) {
+			this.index = index;
+			this.random = new Random(seed);
+			setDaemon(true);
+		}
+		
+		public void run() {
+			try {
+				Socket socket = new Socket(host, port);
+				try {
+					play(socket);
+				} finally {
+					socket.close();
+				}
+			} catch(IOException e) {
+				System.err.println("CLIENT " + index + ": " + e.getMessage());
+			}
+		}
+		
+		private void play(Socket socket) throws IOException {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+			Protocol.writeHello(output, spectate ? Protocol.SPECTATOR : 0, 0, null);
+			uid = input.readInt();
+			if(uid == 0) {
+				throw new IOException("Connection refused");
+			}
+			input.readLong(); // token
+			int width = input.readInt();
+			int height = input.readInt();
+			Protocol.readHash(input);
+			input.readBoolean(); // never cached
+			byte[] wallBytes = new byte[Protocol.wallsLength(width, height)];
+			input.readFully(wallBytes);
+			board = new Board(width, height);
+			board.wallsFromByteArray(wallBytes);
+			
+			long received = 0;
+			long lastArrival = 0;
+			long nextInput = System.nanoTime() + inputPeriod * 1000000L;
+			while(1 == 1) {
+				int amount = input.readInt();
+				if(amount == Protocol.PING) {
+					Protocol.pong(output, input.readLong());
+					continue;
+				}
+				byte[] data = new byte[amount];
+				input.readFully(data);
+				long now = System.nanoTime();
+				board.fromByteArray(data);
+				Protocol.acknowledge(output, ++received);
+				Pacman pacman = pacman();
+				synchronized(this) {
+					frames++;
+					bytes += amount + 4;
+					if(lastArrival != 0) {
+						gaps.add((now - lastArrival) / 1000);
+					}
+					if(pending != MovingCharacter.STOPPED && pacman != null
+							&& pacman.direction() == pending) {
+						latencies.add((now - pendingSent) / 1000);
+						pending = MovingCharacter.STOPPED;
+					}
+				}
+				lastArrival = now;
+				if(now >= nextInput && pacman != null) {
+					int dir = choose(pacman);
+					if(dir != MovingCharacter.STOPPED) {
+						output.writeInt(dir);
+						output.flush();
+						synchronized(this) {
+							pending = dir;
+							pendingSent = System.nanoTime();
+						}
+					}
+					nextInput = now + inputPeriod * 1000000L;
+				}
+			}
+		}
+		
+		private Pacman pacman() {
+			for(Character c : board.characters()) {
+				if(c instanceof Pacman && ((Pacman) c).uid() == uid) {
+					return (Pacman) c;
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Choose the next direction to send. This is either the next in the
+		 * script, or a random direction which the pacman can take (other than
+		 * the one it's taking already).
+		 * 
+		 * @param pacman
+		 * @return the direction, or STOPPED if there's nothing to send.
+		 */
+		private int choose(Pacman pacman) {
+			if(script != null) {
+				int dir = "UDRL".indexOf(script.charAt(next)) + 1;
+				next = (next + 1) % script.length();
+				return dir;
+			}
+			int[] choices = new int[4];
+			int n = 0;
+			if(board.canMoveUp(pacman)) { choices[n++] = MovingCharacter.UP; }
+			if(board.canMoveDown(pacman)) { choices[n++] = MovingCharacter.DOWN; }
+			if(board.canMoveRight(pacman)) { choices[n++] = MovingCharacter.RIGHT; }
+			if(board.canMoveLeft(pacman)) { choices[n++] = MovingCharacter.LEFT; }
+			int dir = n == 0 ? MovingCharacter.STOPPED : choices[random.nextInt(n)];
+			return dir == pacman.direction() ? MovingCharacter.STOPPED : dir;
+		}
+	}
+	
+	/**
+	 * Report the statistics gathered since the last report, and start
+	 * gathering again.
+	 * 
+	 * @param period
+	 *            --- time since the last report (in ms)
+	 * @param total
+	 *            --- latencies from every report so far.
+	 */
+	public void report(long period, Samples total) {
+		int nclients = 0;
+		long frames = 0;
+		long minFrames = Long.MAX_VALUE;
+		long bytes = 0;
+		Samples gaps = new Samples();
+		Samples latencies = new Samples();
+		for(Bot bot : bots) {
+			if(!bot.isAlive()) {
+				continue;
+			}
+			synchronized(bot) {
+				nclients++;
+				frames += bot.frames;
+				minFrames = Math.min(minFrames, bot.frames);
+				bytes += bot.bytes;
+				gaps.addAll(bot.gaps);
+				latencies.addAll(bot.latencies);
+				bot.frames = 0;
+				bot.bytes = 0;
+				bot.gaps.clear();
+				bot.latencies.clear();
+			}
+		}
+		total.addAll(latencies);
+		if(nclients == 0) {
+			System.out.println("NO CLIENTS CONNECTED");
+			return;
+		}
+		System.out.println(String.format(
+				"CLIENTS %d  FPS %.0f (%.1f/client, min %.1f)  %.1fKB/s/client  GAP %s/%s/%sms  LATENCY %s/%s/%sms (%d)",
+				nclients, (frames * 1000.0) / period,
+				(frames * 1000.0) / (period * nclients),
+				(minFrames * 1000.0) / period,
+				(bytes * 1000.0) / (period * nclients * 1024.0),
+				millis(gaps.percentile(50)), millis(gaps.percentile(99)),
+				millis(gaps.percentile(100)), millis(latencies.percentile(50)),
+				millis(latencies.percentile(90)), millis(latencies.percentile(99)),
+				latencies.size()));
+	}
+	
+	private static String millis(long micros) {
+		return micros < 0 ? "-" : String.format("%.1f", micros / 1000.0);
+	}
+	
+	/**
+	 * A simple, growable collection of samples, from which percentiles can be
+	 * calculated.
+	 */
+	public static final class Samples {
+		private long[] samples = new long[64];
+		private int size;
+		
+		public void add(long sample) {
+			if(size == samples.length) {
+				samples = Arrays.copyOf(samples, size * 2);
+			}
+			samples[size++] = sample;
+		}
+		
+		public void addAll(Samples other) {
+			for(int i=0;i!=other.size;++i) {
+				add(other.samples[i]);
+			}
+		}
+		
+		public void clear() {
+			size = 0;
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		/**
+		 * Calculate the given percentile of the samples.
+		 * 
+		 * @param p
+		 *            --- between 0 and 100.
+		 * @return the percentile, or -1 if there are no samples.
+		 */
+		public long percentile(int p) {
+			if(size == 0) {
+				return -1;
+			}
+			long[] sorted = Arrays.copyOf(samples, size);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil((p / 100.0) * size) - 1;
+			return sorted[Math.max(0, Math.min(size - 1, index))];
+		}
+	}
+	
+	public static void main(String[] args) {
+		String host = "localhost";
+		int port = 32768;
+		int nclients = 1;
+		int ramp = 0;
+		int duration = 30;
+		int inputPeriod = 250;
+		String script = null;
+		boolean spectate = false;
+		long seed = System.currentTimeMillis();
+		ArrayList<String> rest = new ArrayList<String>();
+		
+		try {
+			for (int i = 0; i != args.length; ++i) {
+				String arg = args[i];
+				if(arg.equals("-clients")) {
+					nclients = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-ramp")) {
+					ramp = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-duration")) {
+					duration = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-input")) {
+					inputPeriod = Integer.parseInt(args[++i]);
+				} else if(arg.equals("-script")) {
+					script = args[++i].toUpperCase();
+				} else if(arg.equals("-spectate")) {
+					spectate = true;
+				} else if(arg.equals("-seed")) {
+					seed = Long.parseLong(args[++i]);
+				} else if(arg.startsWith("-")) {
+					usage();
+					System.exit(1);
+				} else {
+					rest.add(arg);
+				}
+			}
+			if(rest.size() > 2 || (script != null && !script.matches("[UDLR]+"))) {
+				usage();
+				System.exit(1);
+			} else if(rest.size() == 2) {
+				host = rest.get(0);
+				port = Integer.parseInt(rest.get(1));
+			} else if(rest.size() == 1) {
+				port = Integer.parseInt(rest.get(0));
+			}
+		} catch(NumberFormatException e) {
+			usage();
+			System.exit(1);
+		}
+		
+		System.setProperty("java.awt.headless", "true");
+		LoadGenerator generator = new LoadGenerator(host, port, inputPeriod, script, spectate, seed);
+		Samples total = new Samples();
+		long start = System.currentTimeMillis();
+		long end = start + duration * 1000L;
+		long lastReport = start;
+		long nextConnect = start;
+		int nconnected = 0;
+		while(1 == 1) {
+			long now = System.currentTimeMillis();
+			if(now >= end) {
+				break;
+			}
+			while(nconnected < nclients && now >= nextConnect) {
+				generator.connect();
+				nconnected++;
+				nextConnect += ramp;
+			}
+			if(now - lastReport >= REPORT_PERIOD) {
+				generator.report(now - lastReport, total);
+				lastReport = now;
+			}
+			long wake = lastReport + REPORT_PERIOD;
+			if(nconnected < nclients) {
+				wake = Math.min(wake, nextConnect);
+			}
+			try {
+				Thread.sleep(Math.max(1, Math.min(wake, end) - now));
+			} catch(InterruptedException e) {
+			}
+		}
+		System.out.println(String.format("OVERALL LATENCY %s/%s/%sms (%d)",
+				millis(total.percentile(50)), millis(total.percentile(90)),
+				millis(total.percentile(99)), total.size()));
+		System.exit(0);
+	}
+	
+	private static void usage() {
+		System.out.println("Usage: java pacman.tools.LoadGenerator [options] [host] <port>");
+		System.out.println("Options:");
+		System.out.println("  -clients <n>    Open n connections (default 1)");
+		System.out.println("  -ramp <ms>      Wait between opening each connection (default 0)");
+		System.out.println("  -duration <s>   Run for this long (default 30s)");
+		System.out.println("  -input <ms>     Time between directions sent by each client (default 250ms)");
+		System.out.println("  -script <dirs>  Send directions from a string of U, D, L and R, rather than at random");
+		System.out.println("  -spectate       Connect as spectators, which send no directions");
+		System.out.println("  -seed <n>       Seed for random directions");
+	}
+}
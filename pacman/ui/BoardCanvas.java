@@ -18,94 +18,203 @@
 
 package pacman.ui;
 
-import java.io.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.awt.*;
 import java.awt.image.*;
 
-import javax.imageio.ImageIO;
-
+import pacman.game.Board;
 import pacman.game.Character;
 import pacman.game.Pacman;
+import pacman.ui.SpriteAtlas.Sprite;
+
+import static pacman.ui.SpriteAtlas.*;
 
 /**
  * The board canvas is responsible for drawing the game. Currently, it uses a
  * relatively primitive form of double buffering to ensure there's no flicker
- * during frame updates. This class also generates a number of images using
- * Java's graphics capabilities, which saves having to have lots of very similar
- * images for the different directions.
+ * during frame updates. Images are obtained from the SpriteAtlas, which
+ * generates rotated versions of them using Java's graphics capabilities; this
+ * saves having to have lots of very similar images for the different
+ * directions.
+ * 
+ * Boards which are too large to fit on the screen are drawn through a
+ * scrolling viewport which follows the player's own pacman (or, for a
+ * spectator, the first pacman on the board), with a minimap
+ * giving an overview of the rest of the board.
  * 
  * @author djp
  * 
  */
 public class BoardCanvas extends Canvas {
-	private static final String IMAGE_PATH = "images/";
+	private static final Sprite WALL_S = sprite("walls.png"); 
+	private static final Sprite WALL_E = sprite("walle.png");
+	private static final Sprite WALL_C = sprite("wallc.png");
+	private static final Sprite WALL_T = sprite("wallt.png");
+	private static final Sprite WALL_O = sprite("wallo.png");
+	private static final Sprite WALL_X = sprite("wallx.png");
+	private static final Sprite PILL = sprite("pill.png");
 	
-	private static final Image WALL_S = loadImage("walls.png"); 
-	private static final Image WALL_E = loadImage("walle.png");
-	private static final Image WALL_C = loadImage("wallc.png");
-	private static final Image WALL_T = loadImage("wallt.png");
-	private static final Image WALL_O = loadImage("wallo.png");
-	private static final Image WALL_X = loadImage("wallx.png");
-	private static final Image PILL = loadImage("pill.png");
+	// The wall image for a given mask is WALL_SPRITES[mask] rotated by
+	// WALL_ANGLES[mask] degrees.
+	private static final Sprite[] WALL_SPRITES = {
+		WALL_O, // 0 -   |   |   |  
+		WALL_E, // 1 -   |   |   | U
+		WALL_E, // 2 -   |   | D | 
+		WALL_S, // 3 -   |   | D | U
+		WALL_E, // 4 -   | L |   | 
+		WALL_C, // 5 -   | L |   | U
+		WALL_C, // 6 -   | L | D |  
+		WALL_T, // 7 -   | L | D | U
+		WALL_E, // 8 - R |   |   |  
+		WALL_C, // 9 - R |   |   | U
+		WALL_C, // 0 - R |   | D |  
+		WALL_T, // 1 - R |   | D | U
+		WALL_S, // 2 - R | L |   |  
+		WALL_T, // 3 - R | L |   | U
+		WALL_T, // 4 - R | L | D |
+		WALL_X  // 5 - R | L | D | U 
+	};
 	
-	private static final Image[] WALL_IMGS = {
-		rotate(WALL_O,90),
-		rotate(WALL_E,180), // 1 -   |   |   | U
-		WALL_E,             // 2 -   |   | D | 
-		WALL_S,             // 3 -   |   | D | U
-		rotate(WALL_E,90),  // 4 -   | L |   | 
-		rotate(WALL_C,180), // 5 -   | L |   | U
-		rotate(WALL_C,90),  // 6 -   | L | D |  
-		rotate(WALL_T,180), // 7 -   | L | D | U
-		rotate(WALL_E,-90), // 8 - R |   |   |  
-		rotate(WALL_C,-90), // 9 - R |   |   | U
-		WALL_C,             // 0 - R |   | D |  
-		WALL_T,             // 1 - R |   | D | U
-		rotate(WALL_S,90),  // 2 - R | L |   |  
-		rotate(WALL_T,-90), // 3 - R | L |   | U
-		rotate(WALL_T,90),  // 4 - R | L | D |
-		WALL_X              // 5 - R | L | D | U 
+	private static final int[] WALL_ANGLES = {
+		90, 180, 0, 0, 90, 180, 90, 180, -90, -90, 0, 0, 90, -90, 90, 0
 	};
 		
 	private static final String[] preferredFonts = {"Courier New","Arial","Times New Roman"};
-	private Font font;	
+	private Font font; // resolved when first needed	
 	private final int uid;
-	private final Board gameBoard;			
+	private final Board gameBoard;
+	
+	/**
+	 * The viewport determines how much of the board is visible at any one
+	 * time. This is measured in tiles, and is never larger than the board
+	 * itself. For boards which don't fit on the screen, the viewport scrolls to
+	 * follow the player's pacman.
+	 */
+	private final int viewWidth;
+	private final int viewHeight;
+	
+	/**
+	 * The camera gives the position (in real coordinates) of the top-left
+	 * corner of the viewport.
+	 */
+	private int cameraX;
+	private int cameraY;
+	
+	/**
+	 * The minimap gives an overview of the whole board. This is only used
+	 * when the board does not fit into the viewport, and is null otherwise.
+	 */
+	private final Minimap minimap;
 	
 	public BoardCanvas(int uid, Board gameBoard) {
 		this.gameBoard = gameBoard;
 		this.uid = uid;
-		GraphicsEnvironment env = GraphicsEnvironment.getLocalGraphicsEnvironment();		
-		HashSet<String> availableNames = new HashSet();
-
-		for(String name : env.getAvailableFontFamilyNames()) {
-			availableNames.add(name);			
+		
+		// Size the viewport so that it fits on the screen, leaving room for the
+		// window decorations and the score line.
+		Dimension scrnsize = Toolkit.getDefaultToolkit().getScreenSize();
+		viewWidth = Math.min(gameBoard.width(), Math.max(10, (scrnsize.width - 60) / 30));
+		viewHeight = Math.min(gameBoard.height(), Math.max(10, (scrnsize.height - 120) / 30));
+		if(viewWidth < gameBoard.width() || viewHeight < gameBoard.height()) {
+			minimap = new Minimap(gameBoard);
+		} else {
+			minimap = null;
 		}
-
-		for(String pf : preferredFonts) {
-			if(availableNames.contains(pf)) {				
-				font = new Font(pf,Font.BOLD,24);
-				break;
+		// Start with the camera in the middle of the board
+		centreOn((gameBoard.width() * 30) / 2, (gameBoard.height() * 30) / 2);
+		setSize(new Dimension(viewWidth*30,(viewHeight*30) + 30));		
+	}
+	
+	/**
+	 * Get the font used for messages and the score. This is resolved the first
+	 * time it's needed. Rather than enumerating every font family on the
+	 * system, we just try each preferred font in turn; a font which isn't
+	 * available falls back to a different family.
+	 * 
+	 * @return
+	 */
+	private Font font() {
+		if(font == null) {
+			for(String pf : preferredFonts) {
+				Font f = new Font(pf,Font.BOLD,24);
+				if(f.getFamily().equals(pf)) {
+					font = f;
+					break;
+				}
 			}
-		}		
-		setSize(new Dimension(gameBoard.width()*30,(gameBoard.height()*30) + 30));		
+			if(font == null) {
+				font = new Font(Font.MONOSPACED,Font.BOLD,24);
+			}
+		}
+		return font;
 	}
 	
-	public void paint(Graphics g) {
+	/**
+	 * Move the camera so that the given point (in real coordinates) is in the
+	 * middle of the viewport. The camera is not allowed to move past the edges
+	 * of the board.
+	 * 
+	 * @param realX
+	 * @param realY
+	 */
+	private void centreOn(int realX, int realY) {
+		int maxX = (gameBoard.width() - viewWidth) * 30;
+		int maxY = (gameBoard.height() - viewHeight) * 30;
+		cameraX = Math.max(0, Math.min(maxX, realX - ((viewWidth * 30) / 2)));
+		cameraY = Math.max(0, Math.min(maxY, realY - ((viewHeight * 30) / 2)));
+	}
+	
+	/**
+	 * Draw the current state of the game onto a given graphics context. Only
+	 * those tiles and characters which are visible through the viewport are
+	 * actually drawn.
+	 * 
+	 * @param g
+	 */
+	public void draw(Graphics g) {
 		int width = gameBoard.width();
-		int height = gameBoard.height();		
+		int height = gameBoard.height();
 		
-		// First, draw the board
+		// First, find our pacman and point the camera at it
+		int score = 0;
+		int nlives = 0;
+		synchronized(gameBoard) {
+			Pacman first = null;
+			Pacman own = null;
+			for(Character p : gameBoard.characters()) {
+				if(p instanceof Pacman && ((Pacman) p).uid() == uid) {
+					own = (Pacman) p;
+					break;
+				} else if(p instanceof Pacman && first == null) {
+					first = (Pacman) p;
+				}
+			}
+			if(own != null) {
+				score = own.score();
+				nlives = own.lives();
+				centreOn(own.realX() + 15, own.realY() + 15);
+			} else if(first != null) {
+				// we have no pacman (e.g. we're spectating), so follow someone
+				// else
+				centreOn(first.realX() + 15, first.realY() + 15);
+			}
+		}
 		
-		for(int x=0;x!=width;++x) {
-			for(int y=0;y!=height;++y) {				
+		int viewX = cameraX;
+		int viewY = cameraY;
+		int x0 = viewX / 30;
+		int y0 = viewY / 30;
+		int x1 = Math.min(width, x0 + viewWidth + 1);
+		int y1 = Math.min(height, y0 + viewHeight + 1);
+		g.translate(-viewX, -viewY);
+		
+		// Second, draw the visible portion of the board
+		
+		for(int x=x0;x!=x1;++x) {
+			for(int y=y0;y!=y1;++y) {				
 				if(gameBoard.isWall(x, y)) {
-					// do nothing
+					drawWall(x,y,g);
 				} else if(gameBoard.isPill(x,y)) {
-					g.drawImage(PILL, x*30,y*30, null, null);	
+					g.drawImage(PILL.image(), x*30,y*30, null, null);	
 				} else {
 					g.setColor(Color.BLACK);
 					g.fillRect(x*30,y*30,30,30);
@@ -113,24 +222,32 @@ public class BoardCanvas extends Canvas {
 			}	
 		}
 		
-		// Second, draw the characters
-		int score = 0;
-		int nlives = 0;
+		// Third, draw the visible characters
+		int left = viewX - 30;
+		int top = viewY - 30;
+		int right = viewX + (viewWidth * 30);
+		int bottom = viewY + (viewHeight * 30);
 		synchronized(gameBoard){
-			for(Character p : gameBoard.characters()) {				
-				
-				if(p instanceof Pacman) {
-					Pacman pm = (Pacman) p;
-					if(pm.uid() == uid) {
-						pm.drawOwn(g);
-						score = pm.score();
-						nlives = pm.lives();
-					}else{p.draw(g);}
+			for(Character p : gameBoard.characters()) {
+				if(p.realX() < left || p.realX() > right || p.realY() < top
+						|| p.realY() > bottom) {
+					continue; // off screen
+				}
+				if(p instanceof Pacman && ((Pacman) p).uid() == uid) {
+					Renderers.OWN_PACMAN.draw((Pacman) p, g);
+				} else {
+					Renderers.draw(p, g);
 				}
-				else{p.draw(g);}
 			}
 		}
-
+		
+		g.translate(viewX, viewY);
+		
+		if(minimap != null) {
+			minimap.refresh();
+			minimap.draw(g, (viewWidth * 30) - minimap.width() - 5, 5, viewX,
+					viewY, viewWidth * 30, viewHeight * 30);
+		}
 		
 		// finally, draw any messages
 		switch(gameBoard.state()) {
@@ -154,6 +271,11 @@ public class BoardCanvas extends Canvas {
 	private static final String[] trails = {"st","nd","rd","th","th","th","th","th","th","th"};
 	
 	public void drawGameWone(Graphics g) {
+		if(!gameBoard.isPlayer(uid)) {
+			// we're spectating
+			drawMessage("Game Won",g);
+			return;
+		}
 		int myScore = gameBoard.player(uid).score();
 		int nAbove = 0;
 		int nBelow = 0;
@@ -181,29 +303,25 @@ public class BoardCanvas extends Canvas {
 	
 	private void drawLives(int nlives, Graphics g) {
 		for(int i=0;i!=nlives;++i) {
-			int rx = (gameBoard.width() - i - 1) * 30;
-			g.drawImage(Pacman.PACMAN_RIGHT[2],rx,gameBoard.height()*30,null,null);
+			int rx = (viewWidth - i - 1) * 30;
+			g.drawImage(Renderers.PACMAN[2].image(),rx,viewHeight*30,null,null);
 		}
 	}
 	
 	private void drawScore(String score, Graphics g) {
-		g.setFont(font);
+		g.setFont(font());
 		FontMetrics metrics = g.getFontMetrics();
 		int ascent = metrics.getAscent();
-		int width = gameBoard.width();
-		int height = gameBoard.height();		
-		int y = (height*30);
+		int y = (viewHeight*30);
 		g.setColor(Color.BLACK);
-		g.fillRect(0,y, width*30, 30);		
+		g.fillRect(0,y, viewWidth*30, 30);		
 		char[] chars = score.toCharArray();
 		g.setColor(Color.YELLOW);
 		g.drawChars(chars,0,chars.length,5,y+ascent);
 	}
 	
 	private void drawMessage(String msg, Graphics g) {
-		g.setFont(font);
-		int width = gameBoard.width();
-		int height = gameBoard.height();
+		g.setFont(font());
 		FontMetrics metrics = g.getFontMetrics();
 		int ascent = metrics.getAscent();
 		char[] chars = msg.toCharArray();
@@ -211,30 +329,68 @@ public class BoardCanvas extends Canvas {
 		int msgHeight = metrics.getHeight();
 		int boxWidth = msgWidth + 30;
 		int boxHeight = msgHeight + 30;
-		int x = ((width*30) - boxWidth) / 2;
-		int y = ((height*30) - boxHeight) / 2;
+		int x = ((viewWidth*30) - boxWidth) / 2;
+		int y = ((viewHeight*30) - boxHeight) / 2;
 		g.setColor(Color.DARK_GRAY);
 		g.fillRect(x,y, boxWidth, boxHeight);
 		g.setColor(Color.yellow);
 		g.drawRect(x,y, boxWidth, boxHeight);
 		g.drawRect(x+1,y+1, boxWidth-2, boxHeight-2);
 		g.drawChars(chars,0,chars.length,x+15,y+15+ascent);
-		offscreen = null; // reset offscreen, since we want to get rid of the
-							// message
 	}
 	
 	
 	private Image offscreen = null;
-	public void update(Graphics g) {	
+	private volatile Image lastFrame = null;
+	
+	/**
+	 * Render the next frame. This is called by the render thread, rather than
+	 * the AWT event thread, and draws the frame straight into the canvas's
+	 * buffer strategy. Once drawn, the frame is shown and the display
+	 * synchronised, which gives the windowing system the chance to line the
+	 * buffer flip up with the monitor's refresh.
+	 */
+	public void render() {
+		if(!isDisplayable()) {
+			return; // not on screen yet
+		}
+		BufferStrategy strategy = getBufferStrategy();
+		if(strategy == null) {
+			createBufferStrategy(2);
+			strategy = getBufferStrategy();
+		}
 		if(offscreen == null) {
-			initialiseOffscreen();			
-		} 
-		Image localOffscreen = offscreen;
-		Graphics offgc = offscreen.getGraphics();		
+			initialiseOffscreen();
+		}
+		Graphics offgc = offscreen.getGraphics();
 		// do normal redraw
-		paint(offgc);
+		draw(offgc);
+		offgc.dispose();
+		lastFrame = offscreen;
 		// transfer offscreen to window
-		g.drawImage(localOffscreen, 0, 0, this);
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				g.drawImage(offscreen, 0, 0, null);
+				g.dispose();
+			} while(strategy.contentsRestored());
+			strategy.show();
+		} while(strategy.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+	}
+	
+	public void paint(Graphics g) {
+		// This is only called by the AWT event thread when the window is
+		// exposed. Rather than drawing the game again, we just put back the
+		// last frame drawn by the render thread.
+		Image frame = lastFrame;
+		if(frame != null) {
+			g.drawImage(frame, 0, 0, null);
+		}
+	}
+	
+	public void update(Graphics g) {
+		paint(g);
 	}
 
 	private void initialiseOffscreen() {
@@ -244,75 +400,12 @@ public class BoardCanvas extends Canvas {
 		Graphics offgc = offscreen.getGraphics();
 		offgc.setColor(getBackground());
 		offgc.fillRect(0, 0, d.width, d.height);
-		offgc.setColor(getForeground());
-		
-		int width = gameBoard.width();
-		int height = gameBoard.height();		
-		
-		// First, draw the board
-		
-		for(int x=0;x!=width;++x) {
-			for(int y=0;y!=height;++y) {
-				if(gameBoard.isWall(x, y)) {
-					drawWall(x,y,offgc);
-				}
-			}
-		}
-		
+		offgc.dispose();
 	}
 	
 	private void drawWall(int x, int y, Graphics g) {
-		boolean above = (y-1) >= 0 && gameBoard.isWall(x, y-1);
-		boolean below = (y+1) < gameBoard.height() && gameBoard.isWall(x, y+1);
-		boolean left = (x-1) >= 0 && gameBoard.isWall(x-1, y);
-		boolean right = (x+1) < gameBoard.width() && gameBoard.isWall(x+1, y);
-		
-		int mask = 0;
-		
-		if(above) { mask |= 1; }
-		if(below) { mask |= 2; }
-		if(left) { mask |= 4; }
-		if(right) { mask |= 8; }
-		
-		g.drawImage(WALL_IMGS[mask], x*30,y*30, null, null);		
-	}
-	
-	/**
-	 * Rotate an image a given number of degrees.
-	 * @param src
-	 * @param angle
-	 * @return
-	 */
-	public static Image rotate(Image src, double angle) {
-		int width = src.getWidth(null);
-		int height = src.getHeight(null);		
-		BufferedImage img = new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
-		Graphics2D g = img.createGraphics();
-		g.rotate(Math.toRadians(angle), width/2, height/2);		
-		g.drawImage(src,0,0,width,height,null);
-		g.dispose();
-		return img;
-	}
-	
-	/**
-	 * Load an image from the file system, using a given filename.
-	 * 
-	 * @param filename
-	 * @return
-	 */
-	public static Image loadImage(String filename) {
-		// using the URL means the image loads when stored
-		// in a jar or expanded into individual files.
-		java.net.URL imageURL = BoardCanvas.class.getResource(IMAGE_PATH
-				+ filename);
-
-		try {
-			Image img = ImageIO.read(imageURL);
-			return img;
-		} catch (IOException e) {
-			// we've encountered an error loading the image. There's not much we
-			// can actually do at this point, except to abort the game.
-			throw new RuntimeException("Unable to load image: " + filename);
-		}
+		// the mask identifies which neighbours are walls
+		int mask = gameBoard.wallMask(x, y);
+		g.drawImage(WALL_SPRITES[mask].rotated(WALL_ANGLES[mask]), x*30,y*30, null, null);		
 	}
 }
@@ -28,7 +28,9 @@ public class BoardFrame extends JFrame {
 	public BoardFrame(String title, Board game, int uid, KeyListener... keys) {
 		super(title);		
 				
-		canvas = new BoardCanvas(uid,game);				
+		canvas = new BoardCanvas(uid,game);
+		// get the sprites decoded while the window is being set up
+		SpriteAtlas.preload();
 		setLayout(new BorderLayout());
 		for(KeyListener k : keys) {
 			canvas.addKeyListener(k);
@@ -51,5 +53,13 @@ public class BoardFrame extends JFrame {
 	
 	public void repaint() {
 		canvas.repaint();
-	}		
+	}
+	
+	/**
+	 * Draw the next frame from the calling thread, rather than waiting for the
+	 * AWT event thread to get round to it.
+	 */
+	public void render() {
+		canvas.render();
+	}
 }
@@ -0,0 +1,145 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.ui;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import pacman.game.Board;
+
+/**
+ * A minimap is a downsampled overview of a board which is too large to fit
+ * into the viewport. Each pixel of the minimap covers a square block of tiles,
+ * and is coloured according to whether that block is mostly wall, or contains
+ * any pills.
+ * 
+ * The minimap image is cached, since recomputing it from scratch for a large
+ * board would be far too expensive to do on every frame. Instead, a few pixels
+ * of the image are refreshed each time it is drawn, such that the number of
+ * tiles examined per frame is bounded regardless of the size of the board.
+ * 
+ * @author djp
+ * 
+ */
+public class Minimap {
+	private static final int MAX_SIZE = 150; // longest side in pixels
+	private static final int BUDGET = 65536; // tiles examined per refresh
+	
+	private static final int WALL_RGB = 0x2121DE;
+	private static final int PILL_RGB = 0x807030;
+	private static final int EMPTY_RGB = 0x000000;
+	
+	private final Board board;
+	private final int scale; // number of tiles (in each direction) per pixel
+	private final BufferedImage image;
+	private int nextX; // next pixel of the image to be refreshed
+	private int nextY;
+	
+	public Minimap(Board board) {
+		this.board = board;
+		int longest = Math.max(board.width(), board.height());
+		this.scale = Math.max(1, (longest + MAX_SIZE - 1) / MAX_SIZE);
+		int width = (board.width() + scale - 1) / scale;
+		int height = (board.height() + scale - 1) / scale;
+		this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		// build the initial image in one go
+		for(int y=0;y!=height;++y) {
+			for(int x=0;x!=width;++x) {
+				refreshPixel(x, y);
+			}
+		}
+	}
+	
+	public int width() {
+		return image.getWidth();
+	}
+	
+	public int height() {
+		return image.getHeight();
+	}
+	
+	/**
+	 * Bring the next few pixels of the minimap up to date. Walls never
+	 * change, but pills do and so the whole image is gradually refreshed in a
+	 * round-robin fashion, carrying on each time from where it left off (even
+	 * part way through a row).
+	 */
+	public void refresh() {
+		int width = image.getWidth();
+		int npixels = width * image.getHeight();
+		int pixels = (int) Math.min(npixels, Math.max(1, BUDGET / ((long) scale * scale)));
+		for(int i=0;i!=pixels;++i) {
+			refreshPixel(nextX, nextY);
+			if(++nextX == width) {
+				nextX = 0;
+				nextY = (nextY + 1) % image.getHeight();
+			}
+		}
+	}
+	
+	private void refreshPixel(int px, int py) {
+		int x0 = px * scale;
+		int x1 = Math.min(board.width(), x0 + scale);
+		int y0 = py * scale;
+		int y1 = Math.min(board.height(), y0 + scale);
+		int nwalls = 0;
+		boolean pill = false;
+		for(int y=y0;y!=y1;++y) {
+			for(int x=x0;x!=x1;++x) {
+				if(board.isWall(x,y)) {
+					nwalls++;
+				} else if(!pill && board.isPill(x,y)) {
+					pill = true;
+				}
+			}
+		}
+		int area = (x1 - x0) * (y1 - y0);
+		if(nwalls * 2 > area) {
+			image.setRGB(px, py, WALL_RGB);
+		} else if(pill) {
+			image.setRGB(px, py, PILL_RGB);
+		} else {
+			image.setRGB(px, py, EMPTY_RGB);
+		}
+	}
+	
+	/**
+	 * Draw the minimap at a given position on the screen, along with an
+	 * outline showing the portion of the board currently in the viewport. The
+	 * viewport is given in real coordinates.
+	 * 
+	 * @param g
+	 * @param x
+	 * @param y
+	 * @param viewX
+	 * @param viewY
+	 * @param viewWidth
+	 * @param viewHeight
+	 */
+	public void draw(Graphics g, int x, int y, int viewX, int viewY,
+			int viewWidth, int viewHeight) {
+		g.drawImage(image, x, y, null);
+		g.setColor(Color.DARK_GRAY);
+		g.drawRect(x - 1, y - 1, image.getWidth() + 1, image.getHeight() + 1);
+		int pixel = scale * 30; // real coordinates per minimap pixel
+		g.setColor(Color.YELLOW);
+		g.drawRect(x + (viewX / pixel), y + (viewY / pixel),
+				Math.max(1, viewWidth / pixel), Math.max(1, viewHeight / pixel));
+	}
+}
@@ -0,0 +1,43 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.ui;
+
+import java.awt.Graphics;
+
+import pacman.game.Character;
+
+/**
+ * A renderer is responsible for drawing a particular kind of character onto a
+ * canvas. Keeping this separate from the characters themselves means the game
+ * logic doesn't depend upon AWT at all.
+ * 
+ * @author djp
+ * 
+ * @param <T>
+ */
+public interface Renderer<T extends Character> {
+	
+	/**
+	 * Draw a given character onto a given graphics context.
+	 * 
+	 * @param c
+	 * @param g
+	 */
+	public void draw(T c, Graphics g);
+}
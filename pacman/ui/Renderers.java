@@ -0,0 +1,218 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.ui;
+
+import java.awt.Graphics;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pacman.game.*;
+import pacman.game.Character;
+import pacman.ui.SpriteAtlas.Sprite;
+
+import static pacman.ui.SpriteAtlas.*;
+
+/**
+ * The renderer registry maps each kind of character to the renderer which
+ * draws it. The standard characters are registered here, but others can be
+ * added using register().
+ * 
+ * @author djp
+ * 
+ */
+public final class Renderers {
+	private static final ConcurrentHashMap<Class<?>,Renderer<?>> renderers = new ConcurrentHashMap<Class<?>,Renderer<?>>();
+	
+	/**
+	 * Register a renderer for a given kind of character.
+	 * 
+	 * @param kind
+	 * @param renderer
+	 */
+	public static <T extends Character> void register(Class<T> kind, Renderer<? super T> renderer) {
+		renderers.put(kind, renderer);
+	}
+	
+	/**
+	 * Draw a given character using the renderer registered for it.
+	 * 
+	 * @param c
+	 * @param g
+	 */
+	@SuppressWarnings("unchecked")
+	public static void draw(Character c, Graphics g) {
+		Renderer<Character> r = (Renderer<Character>) renderers.get(c.getClass());
+		if(r == null) {
+			throw new IllegalArgumentException("No renderer for " + c.getClass().getName());
+		}
+		r.draw(c, g);
+	}
+	
+	// =======================================================================
+	// Pacman
+	// =======================================================================
+	
+	// following is public so can be access from BoardCanvas. The frames for
+	// the other directions are just rotations of these.
+	public static final Sprite[] PACMAN = { sprite("pacman2.png"),
+			sprite("pacman2.png"), sprite("pacman3.png"),
+			sprite("pacman3.png"), sprite("pacman4.png"),
+			sprite("pacman4.png"), sprite("pacman3.png"),
+			sprite("pacman3.png") };
+	
+	private static final Sprite[] PACMAN_DYING = {
+		sprite("pacman1.png"),
+		sprite("pacman2.png"),
+		sprite("pacman3.png"),
+		sprite("pacman4.png"),
+		sprite("pacman5.png"),
+		sprite("pacman6.png"),
+		sprite("pacman7.png"),
+	};
+	
+	private static final Sprite[] PACMAN2 = { sprite("pacman22.png"),
+			sprite("pacman22.png"), sprite("pacman23.png"),
+			sprite("pacman23.png"), sprite("pacman24.png"),
+			sprite("pacman24.png"), sprite("pacman23.png"),
+			sprite("pacman23.png") };
+	
+	private static final Sprite[] PACMAN2_DYING = {
+		sprite("pacman21.png"),
+		sprite("pacman22.png"),
+		sprite("pacman23.png"),
+		sprite("pacman24.png"),
+		sprite("pacman25.png"),
+		sprite("pacman26.png"),
+		sprite("pacman27.png"),
+	};
+	
+	/**
+	 * The pacman renderer draws pacmen. Each player's own pacman is drawn
+	 * differently, so they know which one is theirs.
+	 */
+	public static final class PacmanRenderer implements Renderer<Pacman> {
+		private final Sprite[] frames;
+		private final Sprite[] dying;
+		
+		public PacmanRenderer(Sprite[] frames, Sprite[] dying) {
+			this.frames = frames;
+			this.dying = dying;
+		}
+		
+		public void draw(Pacman p, Graphics g) {
+			int realX = p.realX();
+			int realY = p.realY();
+			int state = p.state();
+			if(state == 0) {
+				switch(p.direction()) {
+				case MovingCharacter.UP:
+					g.drawImage(frames[Math.abs(realY % 30)/ 4].rotated(-90), realX,realY, null, null);
+					break;
+				case MovingCharacter.DOWN:				
+					g.drawImage(frames[Math.abs(realY % 30)/ 4].rotated(90), realX,realY, null, null);
+					break;
+				case MovingCharacter.RIGHT:
+					g.drawImage(frames[Math.abs(realX % 30)/ 4].image(), realX,realY, null, null);
+					break;
+				case MovingCharacter.LEFT:					
+					g.drawImage(frames[Math.abs(realX % 30)/ 4].rotated(180), realX,realY, null, null);
+					break;
+				default:
+					// stopped
+					g.drawImage(dying[0].image(), realX,realY, null, null);
+				}
+			} else if(state > 19) {
+				// do nothing
+			} else {
+				g.drawImage(dying[(state-1)/3].image(),realX,realY,null,null);
+			}
+		}
+	}
+	
+	public static final PacmanRenderer OWN_PACMAN = new PacmanRenderer(PACMAN, PACMAN_DYING);
+	public static final PacmanRenderer OTHER_PACMAN = new PacmanRenderer(PACMAN2, PACMAN2_DYING);
+	
+	// =======================================================================
+	// Ghosts
+	// =======================================================================
+	
+	/**
+	 * The ghost renderer draws a ghost facing in the direction it's moving.
+	 */
+	public static final class GhostRenderer implements Renderer<MovingCharacter> {
+		private final Sprite right;
+		private final Sprite left;
+		private final Sprite up;
+		private final Sprite down;
+		
+		public GhostRenderer(Sprite right, Sprite left, Sprite up, Sprite down) {
+			this.right = right;
+			this.left = left;
+			this.up = up;
+			this.down = down;
+		}
+		
+		public void draw(MovingCharacter c, Graphics g) {
+			switch(c.direction()) {
+				case MovingCharacter.RIGHT:
+					g.drawImage(right.image(), c.realX(),c.realY(), null, null);
+					break;
+				case MovingCharacter.UP:
+					g.drawImage(up.image(), c.realX(),c.realY(), null, null);
+					break;
+				case MovingCharacter.DOWN:
+					g.drawImage(down.image(), c.realX(),c.realY(), null, null);
+					break;
+				case MovingCharacter.LEFT:
+					g.drawImage(left.image(), c.realX(),c.realY(), null, null);
+					break;
+			}
+		}
+	}
+	
+	// =======================================================================
+	// Disappearing Pacman
+	// =======================================================================
+	
+	private static final Sprite[] DISCONNECTS = {
+		sprite("disconnect1.png"),
+		sprite("disconnect1.png"),
+		sprite("disconnect2.png"),
+		sprite("disconnect2.png"),
+		sprite("disconnect3.png"),
+		sprite("disconnect3.png"),
+		sprite("disconnect4.png"),
+		sprite("disconnect4.png")
+	};
+	
+	static {
+		register(Pacman.class, OTHER_PACMAN);
+		register(HomerGhost.class, new GhostRenderer(sprite("hghostright.png"),
+				sprite("hghostleft.png"), sprite("hghostup.png"),
+				sprite("hghostdown.png")));
+		register(RandomGhost.class, new GhostRenderer(sprite("rghostright.png"),
+				sprite("rghostleft.png"), sprite("rghostup.png"),
+				sprite("rghostdown.png")));
+		register(Disappear.class, new Renderer<Disappear>() {
+			public void draw(Disappear d, Graphics g) {
+				g.drawImage(DISCONNECTS[d.state()].image(), d.realX(), d.realY(),
+						null, null);
+			}
+		});
+	}
+}
@@ -0,0 +1,167 @@
+// This file is part of the Multi-player Pacman Game.
+//
+// Pacman is free software; you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; either version 3 of the License,
+// or (at your option) any later version.
+//
+// Pacman is distributed in the hope that it will be useful, but
+// WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See
+// the GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public
+// License along with Pacman. If not, see <http://www.gnu.org/licenses/>
+//
+// Copyright 2010, David James Pearce.
+
+
+package pacman.ui;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The sprite atlas is the one place where images are loaded from. Each image
+ * file is decoded at most once, no matter how many times it is asked for, and
+ * the rotated versions of an image (which saves having lots of very similar
+ * images for the different directions) are generated only when first needed.
+ * Since nothing is decoded until it is actually drawn, simply referring to a
+ * sprite is cheap.
+ * 
+ * @author djp
+ * 
+ */
+public final class SpriteAtlas {
+	private static final String IMAGE_PATH = "images/";
+	
+	private static final ConcurrentHashMap<String,Sprite> sprites = new ConcurrentHashMap<String,Sprite>();
+	
+	/**
+	 * Get the sprite for a given image file. The same sprite is returned for
+	 * the same file; however, the image itself is not loaded at this point.
+	 * 
+	 * @param filename
+	 * @return
+	 */
+	public static Sprite sprite(String filename) {
+		return sprites.computeIfAbsent(filename, Sprite::new);
+	}
+	
+	/**
+	 * Begin decoding all known sprites, along with their rotations, in the
+	 * background. This is done in parallel, and is intended to be started
+	 * while the rest of the client is being set up. Anything not ready by the
+	 * time it's drawn will be generated on demand anyway.
+	 */
+	public static void preload() {
+		ArrayList<Sprite> all = new ArrayList<Sprite>(sprites.values());
+		ForkJoinPool.commonPool().execute(() -> all.parallelStream().forEach(Sprite::preload));
+	}
+	
+	/**
+	 * A sprite represents an image file, along with its rotations through
+	 * multiples of 90 degrees.
+	 * 
+	 * @author djp
+	 * 
+	 */
+	public static final class Sprite {
+		private final String filename;
+		private final AtomicReferenceArray<Image> rotations = new AtomicReferenceArray<Image>(4);
+		
+		private Sprite(String filename) {
+			this.filename = filename;
+		}
+		
+		/**
+		 * Get the image for this sprite, as it is in the file.
+		 * 
+		 * @return
+		 */
+		public Image image() {
+			return rotated(0);
+		}
+		
+		/**
+		 * Get the image for this sprite rotated by a given number of degrees,
+		 * which should be a multiple of 90.
+		 * 
+		 * @param angle
+		 * @return
+		 */
+		public Image rotated(int angle) {
+			int quarter = (((angle / 90) % 4) + 4) % 4;
+			Image img = rotations.get(quarter);
+			if(img == null) {
+				img = create(quarter);
+			}
+			return img;
+		}
+		
+		private void preload() {
+			for(int angle=0;angle!=360;angle+=90) {
+				rotated(angle);
+			}
+		}
+		
+		private synchronized Image create(int quarter) {
+			Image img = rotations.get(quarter);
+			if(img == null) {
+				if(quarter == 0) {
+					img = loadImage(filename);
+				} else {
+					img = rotate(rotated(0), quarter * 90);
+				}
+				rotations.set(quarter, img);
+			}
+			return img;
+		}
+	}
+	
+	/**
+	 * Rotate an image a given number of degrees.
+	 * @param src
+	 * @param angle
+	 * @return
+	 */
+	private static Image rotate(Image src, double angle) {
+		int width = src.getWidth(null);
+		int height = src.getHeight(null);		
+		BufferedImage img = new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = img.createGraphics();
+		g.rotate(Math.toRadians(angle), width/2, height/2);		
+		g.drawImage(src,0,0,width,height,null);
+		g.dispose();
+		return img;
+	}
+	
+	/**
+	 * Load an image from the file system, using a given filename.
+	 * 
+	 * @param filename
+	 * @return
+	 */
+	private static Image loadImage(String filename) {
+		// using the URL means the image loads when stored
+		// in a jar or expanded into individual files.
+		java.net.URL imageURL = SpriteAtlas.class.getResource(IMAGE_PATH
+				+ filename);
+
+		try {
+			Image img = ImageIO.read(imageURL);
+			return img;
+		} catch (IOException e) {
+			// we've encountered an error loading the image. There's not much we
+			// can actually do at this point, except to abort the game.
+			throw new RuntimeException("Unable to load image: " + filename);
+		}
+	}
+}